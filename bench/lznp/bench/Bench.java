@@ -0,0 +1,441 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import lznp.entropy.EntropyCoder;
+import lznp.entropy.EntropyDecoder;
+import lznp.entropy.RansCoder;
+import lznp.huffman.HuffmanTree;
+import lznp.lzip.Compress;
+import lznp.lzip.CompressorContext;
+import lznp.lzip.ContextTable;
+import lznp.lzip.Decompress;
+import lznp.util.Bank;
+import lznp.util.BitStream;
+import lznp.util.FileIO;
+import lznp.util.LZNFFile;
+import lznp.util.MoveToFront;
+import lznp.util.Utils;
+
+/**
+ * Bench class
+ * throughput of every codec stage on generated inputs, with
+ * java.util.zip Deflater/Inflater as a baseline. Each stage is run
+ * for a warmup period, then timed until the measure period is up.
+ * <pre>
+ * ant bench -Dbench.args="inputs=text,random sizes=65536 stages=compress,deflate time=2000"
+ * </pre>
+ * @author /u/Philboyd_Studge
+ */
+public class Bench
+{
+    private static final String[] STAGES = { "compress", "decompress",
+        "compress-serial", "decompress-serial", "huffman-tree",
+        "bitstream-push", "bitstream-read", "huffman-decode", "rans-encode", "rans-decode",
+        "mtf-encode", "mtf-decode",
+        "crc32", "deflate", "inflate",
+        "copy-short", "copy-short-bytes", "copy-medium", "copy-medium-bytes",
+        "copy-long", "copy-long-bytes", "copy-overlap", "copy-overlap-bytes",
+        "copy-run", "copy-run-bytes" };
+
+    // results are folded in here so the JIT can not drop the work
+    private static volatile long sink;
+
+    /**
+     * match length and distance ranges of the copy stages, which rebuild
+     * a buffer the size of the input from matches alone
+     */
+    private enum Matches
+    {
+        /** text-like, short matches from anywhere in the window */
+        SHORT(1, 15, 16, 4096),
+        /** record-like, matches of a field or line */
+        MEDIUM(16, 255, 256, 32768),
+        /** repeated blocks, long matches from far back */
+        LONG(256, 4096, 4096, 32768),
+        /** short repeating patterns, the match overlaps itself */
+        OVERLAP(16, 512, 2, 8),
+        /** runs of a single byte */
+        RUN(16, 1024, 1, 1);
+
+        final int minLength;
+        final int maxLength;
+        final int minDistance;
+        final int maxDistance;
+
+        Matches(int minLength, int maxLength, int minDistance, int maxDistance)
+        {
+            this.minLength = minLength;
+            this.maxLength = maxLength;
+            this.minDistance = minDistance;
+            this.maxDistance = maxDistance;
+        }
+
+        /**
+         * distance and length pairs covering size bytes, distances
+         * are cut short near the start of the buffer
+         * @param size length of buffer
+         * @return array of distance, length pairs
+         */
+        int[] generate(int size)
+        {
+            Random random = new Random(size);
+            int[] pairs = new int[64];
+            int count = 0;
+            int position = 1;
+            while (position < size)
+            {
+                int length = Math.min(size - position, minLength + random.nextInt(maxLength - minLength + 1));
+                int distance = Math.min(position, minDistance + random.nextInt(maxDistance - minDistance + 1));
+                if (count + 2 > pairs.length) pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                pairs[count++] = distance;
+                pairs[count++] = length;
+                position += length;
+            }
+            return Arrays.copyOf(pairs, count);
+        }
+    }
+
+    /**
+     * a single timed operation
+     */
+    interface Op
+    {
+        long run();
+    }
+
+    /**
+     * a stage prepared for one input
+     */
+    private static class Stage
+    {
+        final String name;
+        final Op op;
+        final double ratio;
+
+        Stage(String name, Op op, double ratio)
+        {
+            this.name = name;
+            this.op = op;
+            this.ratio = ratio;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("inputs", "text,binary,random,repetitive");
+        options.put("sizes", "65536,1048576,4194304");
+        options.put("stages", String.join(",", STAGES));
+        options.put("warmup", "500");
+        options.put("time", "1000");
+        for (String arg : args)
+        {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !options.containsKey(arg.substring(0, eq)))
+            {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected one of " + options.keySet());
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        List<String> stages = Arrays.asList(options.get("stages").split(","));
+        long warmup = Long.parseLong(options.get("warmup")) * 1000000L;
+        long time = Long.parseLong(options.get("time")) * 1000000L;
+
+        System.out.println(String.format(Locale.ROOT, "%-11s %9s  %-18s %9s %10s %7s",
+                "input", "size", "stage", "MB/s", "ms/op", "ratio"));
+        for (String inputName : options.get("inputs").split(","))
+        {
+            BenchInput input = BenchInput.valueOf(inputName.trim().toUpperCase(Locale.ROOT));
+            for (String size : options.get("sizes").split(","))
+            {
+                byte[] bank = input.generate(Integer.parseInt(size.trim()));
+                for (Stage stage : prepare(bank))
+                {
+                    if (!stages.contains(stage.name)) continue;
+                    double nanosPerOp = measure(stage.op, warmup, time);
+                    System.out.println(String.format(Locale.ROOT, "%-11s %9d  %-18s %9.1f %10.3f %7s",
+                            inputName, bank.length, stage.name,
+                            bank.length / nanosPerOp * 1000.0, nanosPerOp / 1000000.0,
+                            Double.isNaN(stage.ratio) ? "" : String.format(Locale.ROOT, "%.3f", stage.ratio)));
+                }
+            }
+        }
+    }
+
+    /**
+     * run op for the warmup period, then time it for the measure period
+     * @param op operation to time
+     * @param warmup warmup period in nanoseconds
+     * @param time measure period in nanoseconds
+     * @return average nanoseconds per run
+     */
+    private static double measure(Op op, long warmup, long time)
+    {
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < warmup)
+        {
+            sink += op.run();
+        }
+        long runs = 0;
+        long elapsed;
+        start = System.nanoTime();
+        do
+        {
+            sink += op.run();
+            runs++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < time);
+        return (double) elapsed / runs;
+    }
+
+    /**
+     * decompress the single block of a container
+     * @param container byte array of an LZNF file
+     * @return integer length of the block
+     */
+    private static long decompress(byte[] container)
+    {
+        try
+        {
+            LZNFFile file = new LZNFFile(new ByteArrayInputStream(container));
+            file.nextBlock();
+            Decompress unzip = new Decompress(file);
+            unzip.decompress();
+            return unzip.getOutstream().length;
+        }
+        catch (IOException ioe)
+        {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * set up every stage for an input
+     * @param bank input bytes
+     * @return list of stages, ratio is original / compressed size or NaN
+     */
+    private static List<Stage> prepare(final byte[] bank)
+    {
+        List<Stage> stages = new ArrayList<>();
+
+        Compress zip = new Compress(bank, ContextTable.DEFAULT_BITS);
+        zip.compress();
+        final byte[] container = new LZNFFile("bench", new Bank(bank), zip).pack();
+        double ratio = (double) bank.length / LZNFFile.packBlock(bank.length, 0, zip).length;
+        stages.add(new Stage("compress", () -> {
+            Compress c = new Compress(bank, ContextTable.DEFAULT_BITS);
+            return c.compress().getCompressedBytes();
+        }, ratio));
+        stages.add(new Stage("decompress", () -> decompress(container), Double.NaN));
+
+        // the same block with its streams left whole, not interleaved
+        final CompressorContext serial = new CompressorContext(ContextTable.DEFAULT_BITS);
+        serial.setInterleave(false);
+        Compress serialZip = new Compress(bank, serial);
+        serialZip.compress();
+        final byte[] serialContainer = new LZNFFile("bench", new Bank(bank), serialZip).pack();
+        double serialRatio = (double) bank.length / LZNFFile.packBlock(bank.length, 0, serialZip).length;
+        stages.add(new Stage("compress-serial", () -> {
+            Compress c = new Compress(bank, serial);
+            return c.compress().getCompressedBytes();
+        }, serialRatio));
+        stages.add(new Stage("decompress-serial", () -> decompress(serialContainer), Double.NaN));
+
+        stages.add(new Stage("huffman-tree", () -> {
+            HuffmanTree t = new HuffmanTree(HuffmanTree.getFrequencies(bank));
+            return t.getCodes()[1][bank.length > 0 ? bank[0] & 0xff : 0];
+        }, Double.NaN));
+
+        // every input byte coded with a Huffman code of the whole input
+        final HuffmanTree tree = new HuffmanTree(HuffmanTree.getFrequencies(bank));
+        final int[][] codes = tree.getCodes();
+        final int capacity = bank.length * 2 + 9;
+        BitStream encoded = new BitStream(capacity);
+        for (byte b : bank) encoded.pushBits(codes[0][b & 0xff], codes[1][b & 0xff]);
+        encoded.close();
+        final byte[] bits = encoded.getBank();
+        stages.add(new Stage("bitstream-push", () -> {
+            BitStream bs = new BitStream(capacity);
+            for (int i = 0; i < bank.length; i++)
+            {
+                bs.pushBits(codes[0][bank[i] & 0xff], codes[1][bank[i] & 0xff]);
+            }
+            bs.close();
+            return bs.length();
+        }, Double.NaN));
+        stages.add(new Stage("bitstream-read", () -> {
+            BitStream bs = new BitStream(bits);
+            long sum = 0;
+            for (int i = 0; i < bank.length; i++)
+            {
+                sum += bs.readBits(codes[1][bank[i] & 0xff]);
+            }
+            return sum;
+        }, Double.NaN));
+        stages.add(new Stage("huffman-decode", () -> {
+            BitStream bs = new BitStream(bits);
+            long sum = 0;
+            for (int i = 0; i < bank.length; i++)
+            {
+                sum += tree.getCode(bs);
+            }
+            return sum;
+        }, Double.NaN));
+
+        // every input byte coded with rANS, from the counts of the whole input
+        final RansCoder rans = new RansCoder();
+        rans.build(HuffmanTree.getFrequencies(bank));
+        BitStream ransTable = new BitStream();
+        rans.writeTable(ransTable);
+        ransTable.close();
+        BitStream ransCoded = new BitStream(capacity);
+        rans.encode(bank, 0, bank.length, ransCoded);
+        ransCoded.close();
+        final byte[] ransTableBits = ransTable.getBank();
+        final byte[] ransBits = ransCoded.getBank();
+        stages.add(new Stage("rans-encode", () -> {
+            BitStream bs = new BitStream(capacity);
+            rans.encode(bank, 0, bank.length, bs);
+            bs.close();
+            return bs.length();
+        }, (double) bank.length / ransBits.length));
+        stages.add(new Stage("rans-decode", () -> {
+            BitStream bs = new BitStream(ransBits);
+            EntropyDecoder decoder = EntropyCoder.decoder(EntropyCoder.RANS, new BitStream(ransTableBits), bs);
+            long sum = 0;
+            for (int i = 0; i < bank.length; i++)
+            {
+                sum += decoder.decode(bs);
+            }
+            return sum;
+        }, Double.NaN));
+
+        final byte[] mtf = MoveToFront.encode(bank);
+        stages.add(new Stage("mtf-encode", () -> MoveToFront.encode(bank).length, Double.NaN));
+        stages.add(new Stage("mtf-decode", () -> MoveToFront.decode(mtf).length, Double.NaN));
+
+        stages.add(new Stage("crc32", () -> FileIO.getCRC32(bank), Double.NaN));
+
+        final byte[] deflated = deflate(bank);
+        stages.add(new Stage("deflate", () -> deflate(bank).length, (double) bank.length / deflated.length));
+        stages.add(new Stage("inflate", () -> inflate(deflated, bank.length).length, Double.NaN));
+
+        // Utils.copyMatch against the byte at a time loop it replaced
+        final byte[] window = bank.clone();
+        for (Matches matches : Matches.values())
+        {
+            final int[] pairs = matches.generate(window.length);
+            String name = "copy-" + matches.name().toLowerCase(Locale.ROOT);
+            stages.add(new Stage(name, () -> copyMatches(window, pairs, false), Double.NaN));
+            stages.add(new Stage(name + "-bytes", () -> copyMatches(window, pairs, true), Double.NaN));
+        }
+        return stages;
+    }
+
+    /**
+     * rebuild a buffer from distance, length pairs
+     * @param window buffer, its first byte is kept
+     * @param pairs distance, length pairs from Matches.generate
+     * @param bytewise copy a byte at a time instead of with Utils.copyMatch
+     * @return a byte of the result
+     */
+    private static long copyMatches(byte[] window, int[] pairs, boolean bytewise)
+    {
+        int position = 1;
+        for (int i = 0; i < pairs.length; i += 2)
+        {
+            int src = position - pairs[i];
+            int length = pairs[i + 1];
+            if (bytewise)
+            {
+                for (int j = 0; j < length; j++)
+                {
+                    window[position + j] = window[src + j];
+                }
+            }
+            else
+            {
+                Utils.copyMatch(window, src, position, length);
+            }
+            position += length;
+        }
+        return window[position - 1];
+    }
+
+    /**
+     * compress with Deflater at the default level
+     * @param bank input bytes
+     * @return byte array of deflated data
+     */
+    private static byte[] deflate(byte[] bank)
+    {
+        Deflater deflater = new Deflater();
+        deflater.setInput(bank);
+        deflater.finish();
+        byte[] out = new byte[bank.length + bank.length / 1000 + 64];
+        int length = 0;
+        while (!deflater.finished())
+        {
+            if (length == out.length) out = Arrays.copyOf(out, out.length * 2);
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        deflater.end();
+        return Arrays.copyOf(out, length);
+    }
+
+    /**
+     * decompress with Inflater
+     * @param deflated deflated bytes
+     * @param size original length
+     * @return byte array of original data
+     */
+    private static byte[] inflate(byte[] deflated, int size)
+    {
+        Inflater inflater = new Inflater();
+        inflater.setInput(deflated);
+        byte[] out = new byte[size];
+        try
+        {
+            int length = 0;
+            while (!inflater.finished() && length < size)
+            {
+                length += inflater.inflate(out, length, size - length);
+            }
+        }
+        catch (DataFormatException dfe)
+        {
+            throw new IllegalStateException(dfe);
+        }
+        finally
+        {
+            inflater.end();
+        }
+        return out;
+    }
+}
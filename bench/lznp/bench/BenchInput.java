@@ -0,0 +1,132 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.bench;
+
+import java.util.Random;
+
+/**
+ * BenchInput class
+ * generated benchmark inputs. Every kind is built from a fixed seed,
+ * so runs are comparable without shipping sample files
+ * @author /u/Philboyd_Studge
+ */
+public enum BenchInput
+{
+    /** words from a small vocabulary, skewed towards the common ones */
+    TEXT
+    {
+        @Override
+        byte[] generate(int size, Random random)
+        {
+            String[] words = { "the", "of", "and", "to", "in", "a", "is", "that", "for", "it",
+                "as", "was", "with", "be", "by", "on", "not", "he", "this", "are", "or",
+                "his", "from", "at", "which", "but", "have", "an", "had", "they", "you",
+                "were", "their", "one", "all", "we", "can", "her", "has", "there", "been",
+                "compression", "block", "context", "stream", "literal", "match", "table",
+                "length", "decoder", "symbol", "huffman", "prediction", "buffer", "file" };
+            byte[] bank = new byte[size];
+            int i = 0;
+            int sentence = 0;
+            while (i < size)
+            {
+                // squaring the uniform draw favours the front of the list
+                double r = random.nextDouble();
+                String word = words[(int) (r * r * words.length)];
+                if (sentence == 0) word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+                for (int j = 0; j < word.length() && i < size; j++) bank[i++] = (byte) word.charAt(j);
+                if (++sentence > 6 + random.nextInt(12))
+                {
+                    if (i < size) bank[i++] = '.';
+                    if (i < size) bank[i++] = random.nextInt(4) == 0 ? (byte) '\n' : (byte) ' ';
+                    sentence = 0;
+                }
+                else if (i < size)
+                {
+                    bank[i++] = random.nextInt(10) == 0 ? (byte) ',' : (byte) ' ';
+                }
+            }
+            return bank;
+        }
+    },
+
+    /** fixed size records of counters, small deltas and flags */
+    BINARY
+    {
+        @Override
+        byte[] generate(int size, Random random)
+        {
+            byte[] bank = new byte[size];
+            int id = 0;
+            int value = 1000;
+            for (int i = 0; i < size; i++)
+            {
+                int field = i % 16;
+                if (field == 0)
+                {
+                    id++;
+                    value += random.nextInt(33) - 16;
+                }
+                if (field < 4) bank[i] = (byte) (id >>> (field * 8));
+                else if (field < 8) bank[i] = (byte) (value >>> ((field - 4) * 8));
+                else if (field < 10) bank[i] = (byte) random.nextInt(4);
+                else bank[i] = 0;
+            }
+            return bank;
+        }
+    },
+
+    /** uniform random bytes, incompressible */
+    RANDOM
+    {
+        @Override
+        byte[] generate(int size, Random random)
+        {
+            byte[] bank = new byte[size];
+            random.nextBytes(bank);
+            return bank;
+        }
+    },
+
+    /** a short random pattern repeated, with the odd changed byte */
+    REPETITIVE
+    {
+        @Override
+        byte[] generate(int size, Random random)
+        {
+            byte[] pattern = new byte[1024];
+            random.nextBytes(pattern);
+            byte[] bank = new byte[size];
+            for (int i = 0; i < size; i++)
+            {
+                bank[i] = random.nextInt(4096) == 0 ? (byte) random.nextInt() : pattern[i % pattern.length];
+            }
+            return bank;
+        }
+    };
+
+    private static final long SEED = 0x4c5a4e46L;
+
+    abstract byte[] generate(int size, Random random);
+
+    /**
+     * generate input of this kind
+     * @param size number of bytes
+     * @return byte array, the same for the same size on every run
+     */
+    public byte[] generate(int size)
+    {
+        return generate(size, new Random(SEED));
+    }
+}
@@ -0,0 +1,590 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import lznp.entropy.EntropyCoder;
+import lznp.entropy.EntropyDecoder;
+import lznp.entropy.HuffmanCoder;
+import lznp.entropy.RansCoder;
+import lznp.exception.InvalidChecksumException;
+import lznp.huffman.HuffmanTree;
+import lznp.exception.NotValidFileException;
+import lznp.lzip.CompressedBlock;
+import lznp.lzip.CompressorContext;
+import lznp.lzip.DecompressorContext;
+import lznp.util.BitStream;
+
+/**
+ * SelfCheck class
+ * runnable checks of codec properties the benchmarks only measure.
+ * Each check prints its findings and a failed check makes the run
+ * exit with status 1.
+ * <pre>
+ * ant selfcheck -Dselfcheck.args="checks=allocation"
+ * </pre>
+ * @author /u/Philboyd_Studge
+ */
+public class SelfCheck
+{
+    private static final String[] CHECKS = { "allocation", "bitstream", "rans", "interleaved", "segments" };
+
+    // input sizes of the allocation check, smallest first
+    private static final int[] SIZES = { 4096, 65536, 1048576 };
+
+    // bytes a call may allocate beyond what it does at the smallest size
+    private static final long SLACK = 4096;
+
+    private static int failures;
+
+    /**
+     * reference bit packer, a bit at a time, first bit in the highest
+     * position of a byte and the number of padding bits in a last byte
+     */
+    private static class BitPacker
+    {
+        private byte[] bank = new byte[16];
+        private long bits;
+
+        void push(long value, int length)
+        {
+            for (int i = length - 1; i >= 0; i--)
+            {
+                int index = (int) (bits >>> 3);
+                if (index + 1 >= bank.length) bank = Arrays.copyOf(bank, bank.length * 2);
+                if ((value >>> i & 1) == 1) bank[index] |= (byte) (0x80 >>> (bits & 7));
+                bits++;
+            }
+        }
+
+        long bit(long position)
+        {
+            return position < bits ? bank[(int) (position >>> 3)] >>> (7 - (position & 7)) & 1 : 0;
+        }
+
+        byte[] close()
+        {
+            int bytes = (int) ((bits + 7) >>> 3);
+            byte[] closed = Arrays.copyOf(bank, bytes + 1);
+            closed[bytes] = (byte) (bytes * 8 - bits);
+            return closed;
+        }
+    }
+
+    /**
+     * a single check
+     */
+    interface Check
+    {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args)
+    {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("checks", String.join(",", CHECKS));
+        for (String arg : args)
+        {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !options.containsKey(arg.substring(0, eq)))
+            {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected one of " + options.keySet());
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        List<String> checks = Arrays.asList(options.get("checks").split(","));
+        run(checks, "allocation", SelfCheck::allocation);
+        run(checks, "bitstream", SelfCheck::bitstream);
+        run(checks, "rans", SelfCheck::rans);
+        run(checks, "interleaved", SelfCheck::interleaved);
+        run(checks, "segments", SelfCheck::segments);
+        System.out.println(failures == 0 ? "all checks passed" : failures + " failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * run a check if it was asked for, counting it failed if it throws
+     * @param checks names of checks to run
+     * @param name name of this check
+     * @param check the check
+     */
+    private static void run(List<String> checks, String name, Check check)
+    {
+        if (!checks.contains(name)) return;
+        System.out.println("== " + name);
+        try
+        {
+            check.run();
+        }
+        catch (Exception | AssertionError e)
+        {
+            failures++;
+            System.out.println("   FAIL " + e);
+        }
+    }
+
+    /**
+     * record a failure unless the condition holds
+     * @param condition condition to hold
+     * @param message what failed
+     */
+    private static void expect(boolean condition, String message)
+    {
+        if (condition) return;
+        failures++;
+        System.out.println("   FAIL " + message);
+    }
+
+    /**
+     * bytes allocated by one compress or decompress call through a
+     * context must not grow with the size of the input
+     */
+    private static void allocation() throws NotValidFileException
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported())
+        {
+            System.out.println("   skipped, thread allocation counters not supported");
+            return;
+        }
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) threads;
+        mx.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+        CompressorContext compressor = new CompressorContext();
+        DecompressorContext decompressor = new DecompressorContext();
+
+        System.out.println(String.format(Locale.ROOT, "   %-11s %9s %12s %12s",
+                "input", "size", "compress B", "decompress B"));
+        for (BenchInput input : BenchInput.values())
+        {
+            long[] first = null;
+            for (int size : SIZES)
+            {
+                byte[] bank = input.generate(size);
+                byte[] packed = new byte[CompressorContext.compressBound(size)];
+                byte[] out = new byte[size];
+                int length = 0;
+                // the first calls grow the context to this size and warm up the JIT
+                for (int i = 0; i < 20; i++)
+                {
+                    length = compressor.compress(bank, 0, size, packed, 0);
+                    decompressor.decompress(packed, 0, length, out, 0);
+                }
+                expect(Arrays.equals(bank, out), input + " " + size + " did not round trip");
+
+                int runs = 10;
+                long start = mx.getThreadAllocatedBytes(thread);
+                for (int i = 0; i < runs; i++) compressor.compress(bank, 0, size, packed, 0);
+                long compress = (mx.getThreadAllocatedBytes(thread) - start) / runs;
+                start = mx.getThreadAllocatedBytes(thread);
+                for (int i = 0; i < runs; i++) decompressor.decompress(packed, 0, length, out, 0);
+                long decompress = (mx.getThreadAllocatedBytes(thread) - start) / runs;
+                System.out.println(String.format(Locale.ROOT, "   %-11s %9d %12d %12d",
+                        input.name().toLowerCase(Locale.ROOT), size, compress, decompress));
+
+                if (first == null)
+                {
+                    first = new long[] { compress, decompress };
+                    continue;
+                }
+                expect(compress <= first[0] + SLACK, input + " compress allocates more at " + size + " bytes");
+                expect(decompress <= first[1] + SLACK, input + " decompress allocates more at " + size + " bytes");
+            }
+        }
+    }
+
+    /**
+     * BitStream writes the same bytes as a packer working a bit at a time,
+     * for every kind of push and every starting capacity, and reads back
+     * the same bits, also through a window and after a reset
+     */
+    private static void bitstream()
+    {
+        Random random = new Random(8);
+        int streams = 0;
+        for (int round = 0; round < 300; round++)
+        {
+            int ops = round < 20 ? round : random.nextInt(round < 200 ? 200 : 20000);
+            BitStream bs = round % 3 == 0 ? new BitStream() : new BitStream(1 + random.nextInt(64));
+            BitPacker packer = new BitPacker();
+            for (int i = 0; i < ops; i++)
+            {
+                long value = random.nextLong();
+                switch (random.nextInt(5))
+                {
+                    case 0:
+                        bs.pushBit((value & 1) == 1);
+                        packer.push(value, 1);
+                        break;
+                    case 1:
+                        int length = random.nextInt(33);
+                        bs.pushBits((int) value, length);
+                        packer.push(value, length);
+                        break;
+                    case 2:
+                        // values of every width, so the highest one-bit varies
+                        int wide = (int) value >>> random.nextInt(32);
+                        bs.pushBits(wide);
+                        packer.push(wide, 32 - Integer.numberOfLeadingZeros(wide));
+                        break;
+                    case 3:
+                        String bitString = Long.toBinaryString(value >>> random.nextInt(64));
+                        bs.pushBits(bitString);
+                        packer.push(Long.parseUnsignedLong(bitString, 2), bitString.length());
+                        break;
+                    default:
+                        int longLength = random.nextInt(BitStream.MAX_BITS + 1);
+                        bs.pushBits(value, longLength);
+                        packer.push(value, longLength);
+                        break;
+                }
+            }
+            expect(bs.bitsPushed() == packer.bits, "round " + round + " pushed " + bs.bitsPushed() + " bits, expected " + packer.bits);
+            bs.close();
+            byte[] expected = packer.close();
+            expect(Arrays.equals(bs.getBank(), expected), "round " + round + " wrote different bytes");
+            expect(readBack(bs, packer, random.nextLong()), "round " + round + " read back different bits");
+
+            // the same bytes placed inside a larger array
+            byte[] padded = new byte[expected.length + 16];
+            System.arraycopy(expected, 0, padded, 7, expected.length);
+            BitStream window = new BitStream(padded).window(7, expected.length);
+            expect(readBack(window, packer, random.nextLong()), "round " + round + " window read back different bits");
+
+            // written again into the same array
+            bs.reset(1);
+            long seed = random.nextLong();
+            Random again = new Random(seed);
+            BitPacker second = new BitPacker();
+            for (int i = 0; i < ops; i++)
+            {
+                long value = again.nextLong();
+                int length = again.nextInt(BitStream.MAX_BITS + 1);
+                bs.pushBits(value, length);
+                second.push(value, length);
+            }
+            bs.close();
+            expect(Arrays.equals(bs.getBank(), second.close()), "round " + round + " wrote different bytes after reset");
+            streams++;
+        }
+        System.out.println("   " + streams + " streams written and read");
+    }
+
+    /**
+     * read a closed stream with reads of random kinds and lengths,
+     * zeroes are expected past the end
+     * @param bs closed BitStream
+     * @param packer reference holding the same bits
+     * @param seed seed of the read lengths
+     * @return true if every read matched
+     */
+    private static boolean readBack(BitStream bs, BitPacker packer, long seed)
+    {
+        Random random = new Random(seed);
+        long position = 0;
+        while (position < packer.bits + 64)
+        {
+            int kind = random.nextInt(4);
+            int length = kind == 0 ? 1 : 1 + random.nextInt(kind == 3 ? BitStream.MAX_BITS : 32);
+            long expected = 0;
+            for (int i = 0; i < length; i++) expected = expected << 1 | packer.bit(position + i);
+            long actual;
+            switch (kind)
+            {
+                case 0:
+                    actual = bs.readBit() ? 1 : 0;
+                    break;
+                case 1:
+                    actual = bs.readBits(length) & 0xffffffffL;
+                    break;
+                case 2:
+                    actual = bs.peekBits(length) & 0xffffffffL;
+                    bs.skipBits(length);
+                    break;
+                default:
+                    actual = bs.readBitsLong(length);
+                    break;
+            }
+            if (actual != expected) return false;
+            position += length;
+            if (bs.EOB() != position >= packer.bits) return false;
+        }
+        return true;
+    }
+
+    /**
+     * symbols with the counts of the kinds of stream the coders see
+     * @param random source of the symbols
+     * @param kind 0 one symbol, 1 mostly zeroes, 2 uniform, 3 geometric,
+     * 4 text, 5 a few symbols at random
+     * @param length number of symbols
+     * @return byte array of symbols
+     */
+    private static byte[] symbols(Random random, int kind, int length)
+    {
+        byte[] symbols = kind == 4 ? BenchInput.TEXT.generate(length) : new byte[length];
+        int used = 2 + random.nextInt(8);
+        for (int i = 0; i < length && kind != 4; i++)
+        {
+            switch (kind)
+            {
+                case 0:
+                    symbols[i] = 42;
+                    break;
+                case 1:
+                    symbols[i] = random.nextInt(200) == 0 ? (byte) random.nextInt(32) : 0;
+                    break;
+                case 2:
+                    symbols[i] = (byte) random.nextInt(256);
+                    break;
+                case 3:
+                    symbols[i] = (byte) Math.min(255, (int) (-Math.log(1 - random.nextDouble()) * 6));
+                    break;
+                default:
+                    symbols[i] = (byte) (random.nextInt(used) * 37);
+                    break;
+            }
+        }
+        return symbols;
+    }
+
+    /**
+     * rANS round trips of every kind of count, ending exactly at the end
+     * of the stream, and through a CompressedBlock, which records the
+     * coder it chose. Corrupted tables and streams may only decode to
+     * other symbols or fail with InvalidChecksumException
+     */
+    private static void rans()
+    {
+        Random random = new Random(21);
+        int[] chosen = new int[2];
+        for (int round = 0; round < 600; round++)
+        {
+            int kind = round % 6;
+            int length = 1 + random.nextInt(round < 300 ? 64 : 200000);
+            byte[] symbols = symbols(random, kind, length);
+            String name = "round " + round + " kind " + kind + " length " + length;
+
+            RansCoder rans = new RansCoder();
+            rans.build(HuffmanTree.getFrequencies(symbols));
+            BitStream table = new BitStream();
+            rans.writeTable(table);
+            table.close();
+            BitStream stream = new BitStream();
+            rans.encode(symbols, 0, length, stream);
+            stream.close();
+            EntropyDecoder decoder = EntropyCoder.decoder(EntropyCoder.RANS, new BitStream(table.getBank()), stream);
+            boolean equal = true;
+            for (int i = 0; i < length && equal; i++)
+            {
+                equal = decoder.decode(stream) == (symbols[i] & 0xff);
+            }
+            expect(equal, name + " did not round trip");
+            expect(stream.EOB(), name + " left bits in the stream");
+
+            CompressedBlock block = new CompressedBlock();
+            block.addFrequencies(HuffmanTree.getFrequencies(symbols));
+            block.encodeHuffman(symbols);
+            byte[] decoded = decodeBlock(block.getTreeStream().getBank(), block.getStream().getBank(), length);
+            expect(Arrays.equals(decoded, symbols), name + " did not round trip through a block");
+            chosen[block.getCoderId()]++;
+
+            if (round % 10 == 0)
+            {
+                byte[] tableBytes = table.getBank().clone();
+                byte[] streamBytes = stream.getBank().clone();
+                byte[] corrupt = random.nextBoolean() ? tableBytes : streamBytes;
+                corrupt[random.nextInt(corrupt.length)] ^= (byte) (1 << random.nextInt(8));
+                try
+                {
+                    BitStream coded = new BitStream(streamBytes);
+                    decoder = EntropyCoder.decoder(EntropyCoder.RANS, new BitStream(tableBytes), coded);
+                    for (int i = 0; i < length; i++) decoder.decode(coded);
+                }
+                catch (InvalidChecksumException e)
+                {
+                    // a table that does not sum up is found
+                }
+            }
+        }
+        expect(chosen[EntropyCoder.HUFFMAN] > 0 && chosen[EntropyCoder.RANS] > 0, "blocks chose only one coder");
+        System.out.println("   blocks chose Huffman " + chosen[EntropyCoder.HUFFMAN] + ", rANS " + chosen[EntropyCoder.RANS] + " times");
+    }
+
+    /**
+     * decode a stream with the coder recorded before its table
+     * @param table byte array of the table, led by the coder id
+     * @param stream byte array of the coded symbols
+     * @param length number of symbols
+     * @return byte array of symbols
+     */
+    private static byte[] decodeBlock(byte[] table, byte[] stream, int length)
+    {
+        BitStream tableStream = new BitStream(table);
+        int id = tableStream.readBits(8);
+        BitStream coded = new BitStream(stream);
+        byte[] symbols = new byte[length];
+        if ((id & EntropyCoder.INTERLEAVED) != 0)
+        {
+            int count = EntropyCoder.decode(id, tableStream, coded, symbols);
+            return count == length ? symbols : new byte[0];
+        }
+        EntropyDecoder decoder = EntropyCoder.decoder(id, tableStream, coded);
+        for (int i = 0; i < length; i++) symbols[i] = (byte) decoder.decode(coded);
+        return symbols;
+    }
+
+    /**
+     * interleaved round trips with both coders, including streams too
+     * short to fill every sub-stream, and whole blocks with and without
+     * interleaving. A corrupted jump table or stream may only decode to
+     * other symbols or fail with InvalidChecksumException
+     */
+    private static void interleaved() throws NotValidFileException
+    {
+        Random random = new Random(22);
+        int[] chosen = new int[2];
+        int rejected = 0;
+        for (int round = 0; round < 600; round++)
+        {
+            int kind = round % 6;
+            int length = round < 40 ? 1 + round : 1 + random.nextInt(round < 300 ? 8192 : 200000);
+            byte[] symbols = symbols(random, kind, length);
+            String name = "round " + round + " kind " + kind + " length " + length;
+
+            CompressedBlock block = new CompressedBlock();
+            block.setInterleaved(true);
+            block.addFrequencies(HuffmanTree.getFrequencies(symbols));
+            block.encodeHuffman(symbols);
+            byte[] table = block.getTreeStream().getBank();
+            byte[] stream = block.getStream().getBank();
+            expect((table[0] & EntropyCoder.INTERLEAVED) != 0, name + " table does not record interleaving");
+            expect(Arrays.equals(decodeBlock(table, stream, length), symbols), name + " did not round trip");
+            chosen[block.getCoderId()]++;
+
+            byte[] corrupt = stream.clone();
+            // mostly the jump table, sometimes the sub-streams
+            int position = random.nextInt(4) != 0 ? random.nextInt(16) : random.nextInt(corrupt.length);
+            corrupt[position] ^= (byte) (1 << random.nextInt(8));
+            try
+            {
+                decodeBlock(table, corrupt, length);
+            }
+            catch (InvalidChecksumException e)
+            {
+                rejected++;
+            }
+        }
+        expect(chosen[EntropyCoder.HUFFMAN] > 0 && chosen[EntropyCoder.RANS] > 0, "interleaved blocks chose only one coder");
+        System.out.println("   interleaved streams chose Huffman " + chosen[EntropyCoder.HUFFMAN] + ", rANS "
+                + chosen[EntropyCoder.RANS] + " times, " + rejected + " corrupted rejected");
+
+        CompressorContext serial = new CompressorContext();
+        serial.setInterleave(false);
+        CompressorContext interleaved = new CompressorContext();
+        DecompressorContext decompressor = new DecompressorContext();
+        for (BenchInput input : BenchInput.values())
+        {
+            byte[] bank = input.generate(1 << 18);
+            byte[] serialPacked = serial.compress(bank);
+            byte[] interleavedPacked = interleaved.compress(bank);
+            expect(Arrays.equals(decompressor.decompress(serialPacked), bank), input + " serial block did not round trip");
+            expect(Arrays.equals(decompressor.decompress(interleavedPacked), bank), input + " interleaved block did not round trip");
+        }
+    }
+
+    /**
+     * Huffman streams coded in segments on a ForkJoinPool are the same
+     * bits as a single pass, from any bit offset, with segments shorter
+     * than a byte and with the segment streams reused
+     */
+    private static void segments() throws Exception
+    {
+        Random random = new Random(23);
+        int[] lengths = { HuffmanCoder.SEGMENT - 1, HuffmanCoder.SEGMENT, HuffmanCoder.SEGMENT + 1,
+            2 * HuffmanCoder.SEGMENT + 3, 3 * HuffmanCoder.SEGMENT + 37, 5 * HuffmanCoder.SEGMENT + 4099 };
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            int streams = 0;
+            for (int length : lengths)
+            {
+                for (int kind = 0; kind < 6; kind++)
+                {
+                    byte[] symbols = symbols(random, kind, length);
+                    HuffmanCoder coder = new HuffmanCoder();
+                    coder.build(HuffmanTree.getFrequencies(symbols));
+                    // the stream may start anywhere in a byte
+                    int lead = random.nextInt(8);
+                    long leadBits = random.nextLong();
+
+                    BitStream serial = segmentStream(coder, symbols, lead, leadBits);
+                    for (int pass = 0; pass < 2; pass++)
+                    {
+                        BitStream pooled = pool.submit(() -> segmentStream(coder, symbols, lead, leadBits)).get();
+                        expect(Arrays.equals(pooled.getBank(), serial.getBank()),
+                                "kind " + kind + " length " + length + " lead " + lead + " pass " + pass + " differs from a single pass");
+                    }
+
+                    BitStream table = new BitStream();
+                    coder.writeTable(table);
+                    table.close();
+                    serial.readBits(lead + 1);
+                    EntropyDecoder decoder = EntropyCoder.decoder(EntropyCoder.HUFFMAN, new BitStream(table.getBank()), serial);
+                    boolean equal = true;
+                    for (int i = 0; i < length && equal; i++)
+                    {
+                        equal = decoder.decode(serial) == (symbols[i] & 0xff);
+                    }
+                    expect(equal, "kind " + kind + " length " + length + " did not round trip");
+                    streams++;
+                }
+            }
+            System.out.println("   " + streams + " streams coded in segments");
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * code symbols after some leading bits and before a trailing bit
+     * @param coder HuffmanCoder built from the symbols
+     * @param symbols byte array of symbols
+     * @param lead number of leading bits, 0 to 7
+     * @param leadBits value of the leading bits
+     * @return closed BitStream
+     */
+    private static BitStream segmentStream(HuffmanCoder coder, byte[] symbols, int lead, long leadBits)
+    {
+        BitStream bs = new BitStream();
+        bs.pushBits(leadBits, lead);
+        bs.pushBit(true);
+        coder.encode(symbols, 0, symbols.length, bs);
+        bs.pushBit(true);
+        bs.close();
+        return bs;
+    }
+}
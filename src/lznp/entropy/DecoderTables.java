@@ -0,0 +1,37 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.entropy;
+
+import lznp.huffman.HuffmanTable;
+import lznp.huffman.HuffmanTree;
+
+/**
+ * DecoderTables class
+ * Huffman and rANS decode tables of one stream, kept between blocks so
+ * each stream read fills them again instead of allocating them.
+ * Not thread-safe, and a decoder from them is only valid until they
+ * decode the next stream: give each stream decoded at once its own
+ * @author /u/Philboyd_Studge
+ */
+public final class DecoderTables
+{
+    final HuffmanTree huffman = new HuffmanTree();
+    final HuffmanTable huffmanTable = huffman.getTable();
+    final EntropyDecoder huffmanDecoder = huffmanTable::decode;
+    final int[] counts = new int[256];
+    final int[] slots = new int[RansCoder.SCALE];
+    final RansDecoder rans = new RansDecoder(slots);
+    final InterleavedStream ways = new InterleavedStream();
+}
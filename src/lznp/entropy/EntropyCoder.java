@@ -0,0 +1,155 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.entropy;
+
+import lznp.exception.InvalidChecksumException;
+import lznp.util.BitStream;
+
+/**
+ * EntropyCoder interface
+ * codes the symbols of one stream from their counts. The stored table
+ * of each stream starts with the 8 bit id of its coder, so every stream
+ * can use whichever coder is shorter for it. With the INTERLEAVED bit
+ * set in the id, symbol i of the stream was coded into sub-stream
+ * i % WAYS, and the stream is a jump table of the symbol count and the
+ * lengths of all but the last sub-stream as 32 bit ints, then the
+ * sub-streams. Interleaved streams are decoded whole by decode()
+ * @author /u/Philboyd_Studge
+ */
+public interface EntropyCoder
+{
+    int HUFFMAN = 0;
+    int RANS = 1;
+
+    int INTERLEAVED = 0x80;
+    int WAYS = 4;
+
+    /**
+     * id stored before the table
+     * @return integer id
+     */
+    int getId();
+
+    /**
+     * build the code from symbol counts
+     * @param frequencies Array of integers size 256
+     */
+    void build(int[] frequencies);
+
+    /**
+     * length of the coded symbols, exact or a close estimate
+     * @return long bits, Long.MAX_VALUE if the counts can not be coded
+     */
+    long getEncodedBits();
+
+    /**
+     * write the table the decoder is built from
+     * @param bs BitStream to write to
+     */
+    void writeTable(BitStream bs);
+
+    /**
+     * code part of an array
+     * @param symbols byte array of symbols counted by build
+     * @param offset position of the first symbol
+     * @param length number of symbols
+     * @param bs BitStream to write to
+     */
+    void encode(byte[] symbols, int offset, int length, BitStream bs);
+
+    /**
+     * decoder of a stream from its stored table
+     * @param id id of the coder
+     * @param table BitStream positioned after the id
+     * @param stream BitStream of coded symbols
+     * @return EntropyDecoder
+     * @throws InvalidChecksumException if the id or table is not valid,
+     * or the stream is interleaved
+     */
+    static EntropyDecoder decoder(int id, BitStream table, BitStream stream)
+    {
+        return decoder(id, table, stream, new DecoderTables());
+    }
+
+    /**
+     * decoder of a stream from its stored table, built in tables kept
+     * between streams
+     * @param id id of the coder
+     * @param table BitStream positioned after the id
+     * @param stream BitStream of coded symbols
+     * @param tables DecoderTables to fill, the decoder is valid until they are filled again
+     * @return EntropyDecoder
+     * @throws InvalidChecksumException if the id or table is not valid,
+     * or the stream is interleaved
+     */
+    static EntropyDecoder decoder(int id, BitStream table, BitStream stream, DecoderTables tables)
+    {
+        switch (id)
+        {
+            case HUFFMAN:
+                return HuffmanCoder.decoder(table, tables);
+            case RANS:
+                return RansCoder.decoder(table, stream, tables);
+            default:
+                throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
+        }
+    }
+
+    /**
+     * decode a whole interleaved stream, a symbol from each sub-stream
+     * at a time. The decodes do not wait on each other, so the CPU
+     * can overlap them
+     * @param id id of the coder, with the INTERLEAVED bit
+     * @param table BitStream positioned after the id
+     * @param stream BitStream of an interleaved stream
+     * @param symbols byte array to decode to, its length is the most
+     * symbols the stream may hold
+     * @return integer number of symbols decoded
+     * @throws InvalidChecksumException if the id, table or jump table is not valid
+     */
+    static int decode(int id, BitStream table, BitStream stream, byte[] symbols)
+    {
+        return decode(id, table, stream, symbols, new DecoderTables());
+    }
+
+    /**
+     * decode a whole interleaved stream with tables kept between streams
+     * @param id id of the coder, with the INTERLEAVED bit
+     * @param table BitStream positioned after the id
+     * @param stream BitStream of an interleaved stream
+     * @param symbols byte array to decode to, its length is the most
+     * symbols the stream may hold
+     * @param tables DecoderTables to fill
+     * @return integer number of symbols decoded
+     * @throws InvalidChecksumException if the id, table or jump table is not valid
+     */
+    static int decode(int id, BitStream table, BitStream stream, byte[] symbols, DecoderTables tables)
+    {
+        if ((id & INTERLEAVED) == 0) throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
+        InterleavedStream ways = tables.ways.read(stream, symbols.length);
+        switch (id & ~INTERLEAVED)
+        {
+            case HUFFMAN:
+                HuffmanCoder.decode(table, ways, symbols, tables);
+                break;
+            case RANS:
+                RansCoder.decode(table, ways, symbols, tables);
+                break;
+            default:
+                throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
+        }
+        return ways.getCount();
+    }
+}
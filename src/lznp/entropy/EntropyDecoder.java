@@ -12,40 +12,22 @@
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-package lznp.huffman;
+package lznp.entropy;
+
+import lznp.util.BitStream;
 
 /**
- * Node class for Huffman Encoding
+ * EntropyDecoder interface
+ * decodes the symbols of one stream, one at a time as they are needed
  * @author /u/Philboyd_Studge
  */
-public class Node {
-    int index;
-    int count;
-    int hcode;
-    int hlen;
-    Node left;
-    Node right;
-    
-    public Node()
-    {
-        // blank constructor
-    }
-
+public interface EntropyDecoder
+{
     /**
-     * creates new node
-     * @param index byte index
-     * @param count frequency
+     * decode the next symbol. Reading past the end of a corrupted
+     * stream decodes zero bits rather than failing
+     * @param bs BitStream of coded symbols the decoder was made for
+     * @return integer symbol 0 to 255
      */
-    public Node(int index, int count)
-    {
-        this.index = index;
-        this.count = count;
-    }
-
-    
-    @Override
-    public String toString()
-    {
-        return index + " : " + count;
-    }
+    int decode(BitStream bs);
 }
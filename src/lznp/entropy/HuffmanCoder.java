@@ -0,0 +1,208 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.entropy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import lznp.huffman.HuffmanTable;
+import lznp.huffman.HuffmanTree;
+import lznp.util.BitStream;
+
+/**
+ * HuffmanCoder class
+ * EntropyCoder of a canonical Huffman code, the table is the
+ * code lengths stored by HuffmanTree.
+ * Long runs of symbols are coded in segments at once when called from a
+ * ForkJoinPool task, on that pool. Other callers code them in a single
+ * pass, so they never take threads of the common pool. The code lengths
+ * give the bits of each segment, so each can start at its exact bit
+ * offset, and the segments are joined into the same bits a single pass would write
+ * @author /u/Philboyd_Studge
+ */
+public class HuffmanCoder implements EntropyCoder
+{
+    // symbols in a segment, shorter runs are coded in a single pass
+    public static final int SEGMENT = 1 << 18;
+
+    private final HuffmanTree tree = new HuffmanTree();
+    private int[][] codes;
+    private long bits;
+    private BitStream[] segments = new BitStream[0];
+
+    @Override
+    public int getId()
+    {
+        return HUFFMAN;
+    }
+
+    @Override
+    public void build(int[] frequencies)
+    {
+        tree.build(frequencies);
+        codes = tree.getCodes();
+        bits = 0;
+        for (int i = 0; i < 256; i++)
+        {
+            bits += (long) frequencies[i] * codes[1][i];
+        }
+    }
+
+    @Override
+    public long getEncodedBits()
+    {
+        return bits;
+    }
+
+    @Override
+    public void writeTable(BitStream bs)
+    {
+        tree.writeBitTree(bs);
+    }
+
+    @Override
+    public void encode(byte[] symbols, int offset, int length, BitStream bs)
+    {
+        int count = (int) (((long) length + SEGMENT - 1) / SEGMENT);
+        if (count < 2 || parallelism() < 2)
+        {
+            encodeSerial(symbols, offset, length, bs);
+            return;
+        }
+        
+        // bits of each segment from the code lengths, then their offsets
+        final long[] segmentBits = new long[count];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(count);
+        for (int k = 0; k < count; k++)
+        {
+            final int segment = k;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                segmentBits[segment] = codedBits(symbols, offset + segment * SEGMENT, segmentLength(length, segment));
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        
+        if (segments.length < count) segments = new BitStream[count];
+        final long[] start = new long[count];
+        start[0] = bs.bitsPushed();
+        for (int k = 1; k < count; k++) start[k] = start[k - 1] + segmentBits[k - 1];
+        
+        // each segment starts with zero bits up to its offset in its first
+        // byte, so it is joined by merging that byte and copying the rest
+        tasks.clear();
+        for (int k = 0; k < count; k++)
+        {
+            final int segment = k;
+            tasks.add(ForkJoinTask.adapt(() -> {
+                int shift = (int) (start[segment] & 7);
+                int size = (int) ((shift + segmentBits[segment] + 7) / 8 + 9);
+                if (segments[segment] == null) segments[segment] = new BitStream(size);
+                else segments[segment].reset(size);
+                segments[segment].pushBits(0, shift);
+                encodeSerial(symbols, offset + segment * SEGMENT, segmentLength(length, segment), segments[segment]);
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        for (int k = 0; k < count; k++)
+        {
+            bs.pushSegment(segments[k]);
+        }
+    }
+
+    private void encodeSerial(byte[] symbols, int offset, int length, BitStream bs)
+    {
+        final int[] code = codes[0];
+        final int[] codeLength = codes[1];
+        for (int i = offset; i < offset + length; i++)
+        {
+            bs.pushBits(code[symbols[i] & 0xff], codeLength[symbols[i] & 0xff]);
+        }
+    }
+
+    /**
+     * length of the coded symbols of part of an array
+     * @param symbols byte array of symbols counted by build
+     * @param offset position of the first symbol
+     * @param length number of symbols
+     * @return long bits
+     */
+    private long codedBits(byte[] symbols, int offset, int length)
+    {
+        final int[] codeLength = codes[1];
+        long sum = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            sum += codeLength[symbols[i] & 0xff];
+        }
+        return sum;
+    }
+
+    private static int segmentLength(int length, int segment)
+    {
+        return Math.min(SEGMENT, length - segment * SEGMENT);
+    }
+
+    /**
+     * threads segments can be coded on, those of the pool running
+     * the calling task, 1 outside a ForkJoinPool
+     * @return integer parallelism
+     */
+    private static int parallelism()
+    {
+        return ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool().getParallelism() : 1;
+    }
+
+    /**
+     * lookup table decoder from stored code lengths
+     * @param table BitStream of code lengths
+     * @param tables DecoderTables to read the code into
+     * @return EntropyDecoder
+     */
+    static EntropyDecoder decoder(BitStream table, DecoderTables tables)
+    {
+        tables.huffman.read(table);
+        return tables.huffmanDecoder;
+    }
+
+    /**
+     * decode the sub-streams of an interleaved stream with one lookup table
+     * @param table BitStream of code lengths
+     * @param ways InterleavedStream of sub-streams
+     * @param symbols byte array to decode to
+     * @param tables DecoderTables to read the code into
+     */
+    static void decode(BitStream table, InterleavedStream ways, byte[] symbols, DecoderTables tables)
+    {
+        tables.huffman.read(table);
+        final HuffmanTable huffman = tables.huffmanTable;
+        final BitStream stream0 = ways.getStream(0);
+        final BitStream stream1 = ways.getStream(1);
+        final BitStream stream2 = ways.getStream(2);
+        final BitStream stream3 = ways.getStream(3);
+        final int count = ways.getCount();
+        int i = 0;
+        for (; i + WAYS <= count; i += WAYS)
+        {
+            symbols[i] = (byte) huffman.decode(stream0);
+            symbols[i + 1] = (byte) huffman.decode(stream1);
+            symbols[i + 2] = (byte) huffman.decode(stream2);
+            symbols[i + 3] = (byte) huffman.decode(stream3);
+        }
+        for (; i < count; i++)
+        {
+            symbols[i] = (byte) huffman.decode(ways.getStream(i % WAYS));
+        }
+    }
+}
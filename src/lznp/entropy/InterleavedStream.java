@@ -0,0 +1,86 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.entropy;
+
+import lznp.exception.InvalidChecksumException;
+import lznp.util.BitStream;
+
+/**
+ * InterleavedStream class
+ * sub-streams of a stream coded with the INTERLEAVED bit, found through
+ * its jump table. Symbol i of the stream is in sub-stream i % WAYS
+ * @author /u/Philboyd_Studge
+ */
+final class InterleavedStream
+{
+    // symbol count and the lengths of all but the last sub-stream
+    static final int JUMP_TABLE = 4 * EntropyCoder.WAYS;
+
+    private int count;
+    private final int[] lengths = new int[EntropyCoder.WAYS];
+    private final BitStream[] streams = new BitStream[EntropyCoder.WAYS];
+
+    /**
+     * find the sub-streams of an interleaved stream, kept until the next
+     * is read. The last sub-stream runs up to the padBits byte of the stream
+     * @param stream BitStream of an interleaved stream
+     * @param max most symbols the stream may hold
+     * @return this InterleavedStream
+     * @throws InvalidChecksumException if the jump table does not fit the stream
+     */
+    InterleavedStream read(BitStream stream, int max)
+    {
+        count = stream.readBits(32);
+        if (count < 0 || count > max) throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
+        int remaining = stream.length() - JUMP_TABLE - 1;
+        for (int i = 0; i < EntropyCoder.WAYS - 1; i++)
+        {
+            lengths[i] = stream.readBits(32);
+            if (lengths[i] < 1 || lengths[i] > remaining - 1)
+            {
+                throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
+            }
+            remaining -= lengths[i];
+        }
+        lengths[EntropyCoder.WAYS - 1] = remaining;
+
+        int position = JUMP_TABLE;
+        for (int i = 0; i < EntropyCoder.WAYS; i++)
+        {
+            streams[i] = stream.window(position, lengths[i]);
+            position += lengths[i];
+        }
+        return this;
+    }
+
+    /**
+     * get number of symbols in all the sub-streams
+     * @return integer count
+     */
+    int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * get a sub-stream
+     * @param way 0 to WAYS - 1
+     * @return BitStream of the sub-stream
+     */
+    BitStream getStream(int way)
+    {
+        return streams[way];
+    }
+}
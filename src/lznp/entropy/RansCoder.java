@@ -0,0 +1,264 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.entropy;
+
+import java.util.Arrays;
+import lznp.exception.InvalidChecksumException;
+import lznp.util.BitStream;
+
+/**
+ * RansCoder class
+ * range asymmetric numeral system coder. Symbol counts are scaled to sum
+ * to SCALE, and a symbol costs log2(SCALE / scaled count) bits, so the
+ * common symbols of a skewed stream cost less than the one bit a Huffman
+ * code can not go below. Symbols are coded last to first into a 32 bit
+ * state that spills 16 bits at a time. The stream is the final state
+ * then the spilled words in reverse, so the decoder reads it in order
+ * and decodes the symbols first to last.
+ * The table stores each scaled count as 4 bits of its bit length then its
+ * bits below the leading 1 bit, in whichever form is shorter: a 1 bit for
+ * the sparse form, 8 bits of used symbols - 1 then each used symbol in
+ * 8 bits followed by its count, or a 0 bit for the dense form, 8 bits of
+ * highest used symbol then for each symbol up to it a 0 bit if unused
+ * or a 1 bit followed by its count
+ * @author /u/Philboyd_Studge
+ */
+public class RansCoder implements EntropyCoder
+{
+    public static final int SCALE_BITS = 12;
+    public static final int SCALE = 1 << SCALE_BITS;
+
+    // the state is kept from LOWER up to LOWER << 16
+    static final long LOWER = 1L << 16;
+
+    private final int[] counts = new int[256];
+    private final int[] starts = new int[256];
+    private long bits;
+
+    // spilled words, reused from one encode to the next
+    private char[] words = new char[0];
+
+    @Override
+    public int getId()
+    {
+        return RANS;
+    }
+
+    @Override
+    public void build(int[] frequencies)
+    {
+        if (!scale(frequencies, counts))
+        {
+            bits = Long.MAX_VALUE;
+            return;
+        }
+        double cost = 0;
+        int start = 0;
+        for (int i = 0; i < 256; i++)
+        {
+            starts[i] = start;
+            start += counts[i];
+            if (counts[i] > 0) cost += frequencies[i] * (SCALE_BITS - Math.log(counts[i]) / Math.log(2));
+        }
+        // the final state, and the last spilled word may be part used
+        bits = 32 + 16 + (long) Math.ceil(cost);
+    }
+
+    /**
+     * scale counts to sum to SCALE, every used symbol keeping at least 1
+     * @param frequencies Array of integers size 256
+     * @param counts Array size 256 for the scaled counts
+     * @return false if no symbol is used
+     */
+    static boolean scale(int[] frequencies, int[] counts)
+    {
+        long total = 0;
+        for (int i = 0; i < 256; i++) total += frequencies[i];
+        if (total == 0) return false;
+        int sum = 0;
+        for (int i = 0; i < 256; i++)
+        {
+            counts[i] = frequencies[i] == 0 ? 0
+                    : (int) Math.max(1, (frequencies[i] * (long) SCALE + total / 2) / total);
+            sum += counts[i];
+        }
+        // rounding leaves the sum a little off, the largest counts
+        // take up the difference as it costs them the least
+        while (sum != SCALE)
+        {
+            int largest = 0;
+            for (int i = 1; i < 256; i++)
+            {
+                if (counts[i] > counts[largest]) largest = i;
+            }
+            int change = sum < SCALE ? SCALE - sum : -Math.min(sum - SCALE, counts[largest] - 1);
+            counts[largest] += change;
+            sum += change;
+        }
+        return true;
+    }
+
+    @Override
+    public long getEncodedBits()
+    {
+        return bits;
+    }
+
+    @Override
+    public void writeTable(BitStream bs)
+    {
+        int last = 255;
+        while (last > 0 && counts[last] == 0) last--;
+        int used = 0;
+        for (int i = 0; i < 256; i++)
+        {
+            if (counts[i] > 0) used++;
+        }
+        
+        if (used * 8 < last + 1)
+        {
+            bs.pushBit(true);
+            bs.pushBits(used - 1, 8);
+            for (int i = 0; i <= last; i++)
+            {
+                if (counts[i] > 0)
+                {
+                    bs.pushBits(i, 8);
+                    writeCount(bs, counts[i]);
+                }
+            }
+        }
+        else
+        {
+            bs.pushBit(false);
+            bs.pushBits(last, 8);
+            for (int i = 0; i <= last; i++)
+            {
+                bs.pushBit(counts[i] > 0);
+                if (counts[i] > 0) writeCount(bs, counts[i]);
+            }
+        }
+    }
+
+    private static void writeCount(BitStream bs, int count)
+    {
+        int length = 32 - Integer.numberOfLeadingZeros(count);
+        bs.pushBits(length, 4);
+        bs.pushBits(count, length - 1);
+    }
+
+    /**
+     * read a count written by writeCount
+     * @param bs BitStream of the table
+     * @return integer count 1 to SCALE
+     * @throws InvalidChecksumException if the bit length is out of range
+     */
+    private static int readCount(BitStream bs)
+    {
+        int length = bs.readBits(4);
+        if (length == 0 || length > SCALE_BITS + 1)
+        {
+            throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
+        }
+        return 1 << (length - 1) | (length > 1 ? bs.readBits(length - 1) : 0);
+    }
+
+    @Override
+    public void encode(byte[] symbols, int offset, int length, BitStream bs)
+    {
+        // at most one word is spilled per symbol
+        if (words.length < length) words = new char[length];
+        long state = LOWER;
+        int spilled = 0;
+        for (int i = offset + length - 1; i >= offset; i--)
+        {
+            int symbol = symbols[i] & 0xff;
+            long count = counts[symbol];
+            // spill so coding the symbol keeps the state below 2^32
+            if (state >= count << (32 - SCALE_BITS))
+            {
+                words[spilled++] = (char) state;
+                state >>>= 16;
+            }
+            state = (state / count << SCALE_BITS) + state % count + starts[symbol];
+        }
+        bs.pushBits(state, 32);
+        while (spilled > 0)
+        {
+            bs.pushBits(words[--spilled], 16);
+        }
+    }
+
+    /**
+     * decoder from a stored table, reading the initial state
+     * @param table BitStream of scaled counts
+     * @param stream BitStream of coded symbols
+     * @param tables DecoderTables to build the slots in
+     * @return EntropyDecoder
+     * @throws InvalidChecksumException if the counts do not sum to SCALE
+     */
+    static EntropyDecoder decoder(BitStream table, BitStream stream, DecoderTables tables)
+    {
+        readTable(table, tables.counts);
+        RansDecoder.slots(tables.counts, tables.slots);
+        return tables.rans.start(stream);
+    }
+
+    /**
+     * decode the sub-streams of an interleaved stream with one slot table
+     * @param table BitStream of scaled counts
+     * @param ways InterleavedStream of sub-streams
+     * @param symbols byte array to decode to
+     * @param tables DecoderTables to build the slots in
+     * @throws InvalidChecksumException if the counts do not sum to SCALE
+     */
+    static void decode(BitStream table, InterleavedStream ways, byte[] symbols, DecoderTables tables)
+    {
+        readTable(table, tables.counts);
+        RansDecoder.slots(tables.counts, tables.slots);
+        RansDecoder.decode(tables.slots, ways, symbols);
+    }
+
+    /**
+     * read the scaled counts written by writeTable
+     * @param table BitStream of scaled counts
+     * @param counts array of integers size 256 to read into
+     * @throws InvalidChecksumException if the counts do not sum to SCALE
+     */
+    private static void readTable(BitStream table, int[] counts)
+    {
+        Arrays.fill(counts, 0);
+        if (table.readBit())
+        {
+            int used = table.readBits(8) + 1;
+            for (int i = 0; i < used; i++)
+            {
+                int symbol = table.readBits(8);
+                counts[symbol] = readCount(table);
+            }
+        }
+        else
+        {
+            int last = table.readBits(8);
+            for (int i = 0; i <= last; i++)
+            {
+                if (table.readBit()) counts[i] = readCount(table);
+            }
+        }
+        int sum = 0;
+        for (int i = 0; i < 256; i++) sum += counts[i];
+        if (sum != SCALE) throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
+    }
+}
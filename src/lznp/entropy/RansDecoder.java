@@ -0,0 +1,124 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.entropy;
+
+import lznp.util.BitStream;
+
+/**
+ * RansDecoder class
+ * decodes a stream coded by RansCoder. The low SCALE_BITS of the state
+ * pick a slot, which gives the symbol and how to step the state back
+ * @author /u/Philboyd_Studge
+ */
+final class RansDecoder implements EntropyDecoder
+{
+    // symbol << 24 | scaled count - 1 << 12 | slot - first slot of the symbol
+    private final int[] slots;
+    private long state;
+
+    /**
+     * Creates a decoder of the slot table filled by slots()
+     * @param slots array size RansCoder.SCALE
+     */
+    RansDecoder(int[] slots)
+    {
+        this.slots = slots;
+    }
+
+    /**
+     * start decoding a stream, reading its initial state
+     * @param stream BitStream of coded symbols
+     * @return this decoder
+     */
+    RansDecoder start(BitStream stream)
+    {
+        state = stream.readBitsLong(32);
+        return this;
+    }
+
+    /**
+     * fill the slot table of scaled counts
+     * @param counts scaled counts summing to RansCoder.SCALE
+     * @param slots array size RansCoder.SCALE
+     */
+    static void slots(int[] counts, int[] slots)
+    {
+        int slot = 0;
+        for (int symbol = 0; symbol < 256; symbol++)
+        {
+            int entry = symbol << 24 | (counts[symbol] - 1) << 12;
+            for (int i = 0; i < counts[symbol]; i++)
+            {
+                slots[slot++] = entry | i;
+            }
+        }
+    }
+
+    @Override
+    public int decode(BitStream bs)
+    {
+        int entry = slots[(int) state & (RansCoder.SCALE - 1)];
+        state = ((entry >>> 12 & 0xfff) + 1) * (state >>> RansCoder.SCALE_BITS) + (entry & 0xfff);
+        if (state < RansCoder.LOWER) state = state << 16 | bs.readBits(16);
+        return entry >>> 24;
+    }
+
+    /**
+     * decode the sub-streams of an interleaved stream, with the four
+     * states kept in locals so their steps can overlap
+     * @param slots array from slots()
+     * @param ways InterleavedStream of sub-streams
+     * @param symbols byte array to decode to
+     */
+    static void decode(int[] slots, InterleavedStream ways, byte[] symbols)
+    {
+        final BitStream stream0 = ways.getStream(0);
+        final BitStream stream1 = ways.getStream(1);
+        final BitStream stream2 = ways.getStream(2);
+        final BitStream stream3 = ways.getStream(3);
+        final int count = ways.getCount();
+        final int mask = RansCoder.SCALE - 1;
+        long state0 = stream0.readBitsLong(32);
+        long state1 = stream1.readBitsLong(32);
+        long state2 = stream2.readBitsLong(32);
+        long state3 = stream3.readBitsLong(32);
+        int i = 0;
+        for (; i + EntropyCoder.WAYS <= count; i += EntropyCoder.WAYS)
+        {
+            int entry0 = slots[(int) state0 & mask];
+            int entry1 = slots[(int) state1 & mask];
+            int entry2 = slots[(int) state2 & mask];
+            int entry3 = slots[(int) state3 & mask];
+            state0 = ((entry0 >>> 12 & 0xfff) + 1) * (state0 >>> RansCoder.SCALE_BITS) + (entry0 & 0xfff);
+            state1 = ((entry1 >>> 12 & 0xfff) + 1) * (state1 >>> RansCoder.SCALE_BITS) + (entry1 & 0xfff);
+            state2 = ((entry2 >>> 12 & 0xfff) + 1) * (state2 >>> RansCoder.SCALE_BITS) + (entry2 & 0xfff);
+            state3 = ((entry3 >>> 12 & 0xfff) + 1) * (state3 >>> RansCoder.SCALE_BITS) + (entry3 & 0xfff);
+            if (state0 < RansCoder.LOWER) state0 = state0 << 16 | stream0.readBits(16);
+            if (state1 < RansCoder.LOWER) state1 = state1 << 16 | stream1.readBits(16);
+            if (state2 < RansCoder.LOWER) state2 = state2 << 16 | stream2.readBits(16);
+            if (state3 < RansCoder.LOWER) state3 = state3 << 16 | stream3.readBits(16);
+            symbols[i] = (byte) (entry0 >>> 24);
+            symbols[i + 1] = (byte) (entry1 >>> 24);
+            symbols[i + 2] = (byte) (entry2 >>> 24);
+            symbols[i + 3] = (byte) (entry3 >>> 24);
+        }
+        // the last sub-streams past the first are a symbol shorter
+        for (int way = 0; i < count; i++, way++)
+        {
+            long state = way == 0 ? state0 : way == 1 ? state1 : state2;
+            symbols[i] = (byte) (slots[(int) state & mask] >>> 24);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.event;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * CompressEvent class
+ * JFR event covering Compress.compress() of one block
+ * @author /u/Philboyd_Studge
+ */
+@Name("lznp.Compress")
+@Label("LZNF Compress")
+@Category("LZNF")
+@Description("Compressing one block")
+public class CompressEvent extends Event
+{
+    @Label("Block")
+    @Description("Block number in the file or stream, -1 if not known")
+    public int blockId;
+
+    @Label("Uncompressed Size")
+    @DataAmount
+    public long uncompressedBytes;
+
+    @Label("Compressed Size")
+    @DataAmount
+    public long compressedBytes;
+}
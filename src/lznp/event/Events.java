@@ -0,0 +1,79 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.event;
+
+/**
+ * Events class
+ * begins the JFR events of the codec. jdk.jfr is not in Java 8 runtimes
+ * before 8u262, so its presence is checked once and the event classes are
+ * only loaded when it is there. Each method returns a begun event only while
+ * a recording has its type enabled, otherwise null and nothing is recorded
+ * @author /u/Philboyd_Studge
+ */
+public final class Events
+{
+    private static final boolean JFR = isJfrPresent();
+
+    private Events() {}
+
+    /**
+     * look for jdk.jfr without initializing it
+     * @return true if the runtime has jdk.jfr
+     */
+    private static boolean isJfrPresent()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event", false, Events.class.getClassLoader());
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @return begun CompressEvent, null if not recorded
+     */
+    public static CompressEvent beginCompress()
+    {
+        return JFR ? Recording.beginCompress() : null;
+    }
+
+    /**
+     * @return begun DecompressEvent, null if not recorded
+     */
+    public static DecompressEvent beginDecompress()
+    {
+        return JFR ? Recording.beginDecompress() : null;
+    }
+
+    /**
+     * @return begun PhaseEvent, null if not recorded
+     */
+    public static PhaseEvent beginPhase()
+    {
+        return JFR ? Recording.beginPhase() : null;
+    }
+
+    /**
+     * @return begun FileIOEvent, null if not recorded
+     */
+    public static FileIOEvent beginFileIO()
+    {
+        return JFR ? Recording.beginFileIO() : null;
+    }
+}
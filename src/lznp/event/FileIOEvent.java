@@ -0,0 +1,45 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.event;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * FileIOEvent class
+ * JFR event covering a block read or write by FileIO
+ * @author /u/Philboyd_Studge
+ */
+@Name("lznp.FileIO")
+@Label("LZNF File I/O")
+@Category("LZNF")
+@Description("Block read or write by FileIO")
+public class FileIOEvent extends Event
+{
+    @Label("Operation")
+    public String operation;
+
+    @Label("Position")
+    @Description("Position in the file, -1 for the current position")
+    public long position;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,60 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.event;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+
+/**
+ * Recording class
+ * holds the EventTypes of the codec events. Only loaded by Events
+ * once jdk.jfr is known to be present
+ * @author /u/Philboyd_Studge
+ */
+final class Recording
+{
+    private static final EventType COMPRESS = EventType.getEventType(CompressEvent.class);
+    private static final EventType DECOMPRESS = EventType.getEventType(DecompressEvent.class);
+    private static final EventType PHASE = EventType.getEventType(PhaseEvent.class);
+    private static final EventType FILE_IO = EventType.getEventType(FileIOEvent.class);
+
+    private Recording() {}
+
+    static CompressEvent beginCompress()
+    {
+        return COMPRESS.isEnabled() ? begin(new CompressEvent()) : null;
+    }
+
+    static DecompressEvent beginDecompress()
+    {
+        return DECOMPRESS.isEnabled() ? begin(new DecompressEvent()) : null;
+    }
+
+    static PhaseEvent beginPhase()
+    {
+        return PHASE.isEnabled() ? begin(new PhaseEvent()) : null;
+    }
+
+    static FileIOEvent beginFileIO()
+    {
+        return FILE_IO.isEnabled() ? begin(new FileIOEvent()) : null;
+    }
+
+    private static <T extends Event> T begin(T event)
+    {
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.huffman;
+
+import java.util.Arrays;
+import lznp.exception.InvalidChecksumException;
+import lznp.util.BitStream;
+
+/**
+ * Huffman Table class
+ * Lookup table decoder for a canonical Huffman code. Codes up to
+ * tableBits long are decoded with a single lookup of the next tableBits
+ * bits, longer codes fall back to searching the first code of each length.
+ * The table reads the arrays of its HuffmanTree, and is built again in
+ * place when the tree is.
+ * @author /u/Philboyd_Studge
+ */
+public class HuffmanTable
+{
+    public static final int MIN_TABLE_BITS = 9;
+    public static final int MAX_TABLE_BITS = 12;
+    public static final int DEFAULT_TABLE_BITS = 11;
+
+    private final int tableBits;
+
+    // symbol << 4 | code length, 0 if the code is longer than tableBits
+    private final short[] table;
+
+    // first code, index into symbols and number of codes of each length
+    private final int[] firstCode = new int[HuffmanTree.MAX_CODE_LENGTH + 1];
+    private final int[] firstIndex = new int[HuffmanTree.MAX_CODE_LENGTH + 1];
+    private final int[] counts;
+    private final int[] symbols;
+
+    /**
+     * Creates a lookup table for a canonical code
+     * @param counts number of codes of each length
+     * @param symbols used symbols sorted by code length then symbol
+     * @param tableBits MIN_TABLE_BITS to MAX_TABLE_BITS
+     */
+    HuffmanTable(int[] counts, int[] symbols, int tableBits)
+    {
+        if (tableBits < MIN_TABLE_BITS || tableBits > MAX_TABLE_BITS)
+        {
+            throw new IllegalArgumentException("Table bits must be between "
+                    + MIN_TABLE_BITS + " and " + MAX_TABLE_BITS + ": " + tableBits);
+        }
+        this.tableBits = tableBits;
+        this.counts = counts;
+        this.symbols = symbols;
+        this.table = new short[1 << tableBits];
+        build();
+    }
+
+    /**
+     * fill the table from the counts and symbols, which have changed
+     * since it was last built
+     */
+    void build()
+    {
+        // codes longer than tableBits share entries left 0
+        Arrays.fill(table, (short) 0);
+        int code = 0;
+        int index = 0;
+        for (int len = 1; len <= HuffmanTree.MAX_CODE_LENGTH; len++)
+        {
+            firstCode[len] = code;
+            firstIndex[len] = index;
+            for (int i = 0; i < counts[len]; i++, code++, index++)
+            {
+                if (len <= tableBits)
+                {
+                    // fill every entry starting with this code
+                    int shift = tableBits - len;
+                    short entry = (short) (symbols[index] << 4 | len);
+                    int start = code << shift;
+                    int end = Math.min(start + (1 << shift), table.length);
+                    for (int j = start; j < end; j++)
+                    {
+                        table[j] = entry;
+                    }
+                }
+            }
+            code <<= 1;
+        }
+    }
+
+    /**
+     * get number of bits looked up at once
+     * @return integer bits
+     */
+    public int getTableBits()
+    {
+        return tableBits;
+    }
+
+    /**
+     * decodes individual value from BitStream of Huffman Codes
+     * @param bs BitStream of Huffman codes
+     * @return integer encoded value
+     */
+    public int decode(BitStream bs)
+    {
+        int entry = table[bs.peekBits(tableBits)];
+        if (entry != 0)
+        {
+            bs.skipBits(entry & 0xf);
+            return entry >>> 4;
+        }
+        return decodeLong(bs);
+    }
+
+    /**
+     * decode a code longer than tableBits
+     * @param bs BitStream of Huffman codes
+     * @return integer encoded value
+     */
+    private int decodeLong(BitStream bs)
+    {
+        int bits = bs.peekBits(HuffmanTree.MAX_CODE_LENGTH);
+        for (int len = tableBits + 1; len <= HuffmanTree.MAX_CODE_LENGTH; len++)
+        {
+            int code = bits >>> (HuffmanTree.MAX_CODE_LENGTH - len);
+            if (code >= firstCode[len] && code - firstCode[len] < counts[len])
+            {
+                bs.skipBits(len);
+                return symbols[firstIndex[len] + code - firstCode[len]];
+            }
+        }
+        throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
+    }
+}
@@ -14,17 +14,57 @@
  */
 package lznp.huffman;
 
-import lznp.util.BinaryHeap;
+import java.util.Arrays;
+import lznp.exception.InvalidChecksumException;
 import lznp.util.BitStream;
 
 /**
  * Huffman Tree class 
- * Holds a 256-byte single byte tree
+ * Canonical Huffman code for single byte symbols, with code lengths
+ * limited to MAX_CODE_LENGTH bits. Only the code lengths are stored,
+ * the codes themselves are assigned in order of length then symbol.
+ * A tree can be built or read again in place, keeping its arrays and
+ * lookup table, so coding many streams does not allocate them each time
  * @author /u/Philboyd_Studge
  */
 public class HuffmanTree
 {
-    Tree htree;
+    public static final int MAX_CODE_LENGTH = 15;
+    
+    private static final int SYMBOLS = 256;
+    
+    // code length of each symbol, 0 if unused
+    private final int[] lengths = new int[SYMBOLS];
+    
+    // number of codes of each length
+    private final int[] counts = new int[MAX_CODE_LENGTH + 1];
+    
+    // used symbols in canonical order
+    private final int[] symbols = new int[SYMBOLS];
+    
+    // first position of each code length in symbols
+    private final int[] offsets = new int[MAX_CODE_LENGTH + 2];
+    
+    // codes[0] bit codes, codes[1] code lengths, filled by getCodes
+    private final int[][] codes = new int[2][SYMBOLS];
+    
+    // package-merge leaves, item weights and items of each level,
+    // made on the first build
+    private long[] leaves;
+    private long[] weights;
+    private long[] prevWeights;
+    private int[][] items;
+    
+    // bits looked up at once by getCode, 0 to read a bit at a time
+    private int tableBits = HuffmanTable.DEFAULT_TABLE_BITS;
+    private HuffmanTable table;
+
+    /**
+     * Creates an empty Huffman Tree, to be built or read
+     */
+    public HuffmanTree()
+    {
+    }
 
     /**
      * Creates a Huffman Tree with the given array
@@ -33,7 +73,7 @@ public class HuffmanTree
      */
     public HuffmanTree(int[] frequencies)
     {
-        this.htree = getHuffmanTree(frequencies);
+        build(frequencies);
     }
     
     /**
@@ -42,111 +82,315 @@ public class HuffmanTree
      */
     public HuffmanTree(BitStream bs)
     {
-       this.htree = getHuffmanTree(bs);
+       read(bs);
+    }
+
+    /**
+     * build the code again from symbol counts
+     * @param frequencies Array of integers size 256
+     */
+    public void build(int[] frequencies)
+    {
+        setCodeLengths(frequencies);
+        sortSymbols();
+    }
+
+    /**
+     * read the code again from stored code lengths
+     * @param bs BitStream of code lengths
+     */
+    public void read(BitStream bs)
+    {
+        readCodeLengths(bs);
+        sortSymbols();
     }
 
     /**
-     * Generate Huffman Tree from array of frequencies
-     * @param frequencies
-     * @return Tree
+     * Length limited code lengths by package-merge
+     * symbols with zero frequency are left out, unless needed to make
+     * at least two codes so every code is at least one bit long
+     * @param frequencies Array of integers size 256
      */
-    private Tree getHuffmanTree(int[] frequencies)
+    private void setCodeLengths(int[] frequencies)
     {
-        BinaryHeap<Tree> heap = new BinaryHeap<>();
-        for (int i = 0; i < frequencies.length; i++)
+        if (leaves == null)
+        {
+            leaves = new long[SYMBOLS];
+            weights = new long[2 * SYMBOLS];
+            prevWeights = new long[2 * SYMBOLS];
+            items = new int[MAX_CODE_LENGTH][2 * SYMBOLS];
+        }
+        final long[] leaves = this.leaves;
+        final int[][] items = this.items;
+        long[] weights = this.weights;
+        long[] prevWeights = this.prevWeights;
+        
+        // leaves sorted by frequency, then symbol
+        int n = 0;
+        for (int i = 0; i < SYMBOLS; i++)
+        {
+            if (frequencies[i] > 0) leaves[n++] = (long) frequencies[i] << 8 | i;
+        }
+        for (int i = 0; n < 2; i++)
         {
-            if (frequencies[i] > 0)
+            if (frequencies[i] == 0) leaves[n++] = i;
+        }
+        // in place, Arrays.sort may allocate when the counts hold sorted runs
+        for (int i = 1; i < n; i++)
+        {
+            long leaf = leaves[i];
+            int j = i;
+            for (; j > 0 && leaves[j - 1] > leaf; j--) leaves[j] = leaves[j - 1];
+            leaves[j] = leaf;
+        }
+        
+        // each level merges the leaves with packages of pairs from the level below.
+        // leaf items store the symbol, package items store -1
+        int prevCount = 0;
+        for (int level = 0; level < MAX_CODE_LENGTH; level++)
+        {
+            int packages = prevCount / 2;
+            int li = 0;
+            int pi = 0;
+            int count = 0;
+            while (li < n || pi < packages)
             {
-                heap.add(new Tree(i, frequencies[i]));
+                long leafWeight = li < n ? leaves[li] >>> 8 : Long.MAX_VALUE;
+                long packWeight = pi < packages ? prevWeights[2 * pi] + prevWeights[2 * pi + 1] : Long.MAX_VALUE;
+                if (leafWeight <= packWeight)
+                {
+                    weights[count] = leafWeight;
+                    items[level][count++] = (int) (leaves[li++] & 0xff);
+                }
+                else
+                {
+                    weights[count] = packWeight;
+                    items[level][count++] = -1;
+                    pi++;
+                }
             }
+            long[] t = prevWeights;
+            prevWeights = weights;
+            weights = t;
+            prevCount = count;
         }
         
-        while (heap.length() > 1)
+        // the first 2n - 2 items of the top level are the solution,
+        // a symbol's code length is the number of times it is chosen
+        Arrays.fill(lengths, 0);
+        int take = 2 * n - 2;
+        for (int level = MAX_CODE_LENGTH - 1; level >= 0 && take > 0; level--)
+        {
+            int packages = 0;
+            for (int i = 0; i < take; i++)
+            {
+                if (items[level][i] < 0) packages++;
+                else lengths[items[level][i]]++;
+            }
+            take = 2 * packages;
+        }
+    }
+
+    /**
+     * sort used symbols by code length then symbol,
+     * and build the lookup table again if there is one
+     */
+    private void sortSymbols()
+    {
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < SYMBOLS; i++)
         {
-            Tree t1 = heap.remove();
-            Tree t2 = heap.remove();
-            heap.add(new Tree(t1, t2));
+            counts[lengths[i]]++;
         }
+        counts[0] = 0;
         
-        return heap.remove();
+        offsets[1] = 0;
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++)
+        {
+            offsets[len + 1] = offsets[len] + counts[len];
+        }
+        for (int i = 0; i < SYMBOLS; i++)
+        {
+            if (lengths[i] > 0) symbols[offsets[lengths[i]]++] = i;
+        }
+        if (table != null) table.build();
     }
 
     /**
-     * Generate Huffman tree from BitStream
-     * Re-creates tree, ignores frequency count
-     * @param bs BitStream of tree structure
-     * @return Tree
+     * Read code lengths from BitStream
+     * a 1 bit for the sparse form: 8 bits of used symbols - 1, then
+     * 8 bits of symbol and 4 bits of code length - 1 for each.
+     * a 0 bit for the dense form: 8 bits of highest used symbol, then for
+     * each symbol up to it a 0 bit if unused or a 1 bit and 4 bits of code length - 1
+     * @param bs BitStream of code lengths
      */
-    private Tree getHuffmanTree(BitStream bs)
+    private void readCodeLengths(BitStream bs)
     {  
-
-        Tree tree;
+        final int[] codeLengths = lengths;
+        Arrays.fill(codeLengths, 0);
         if (bs.readBit())
         {
-            int t = bs.readBits(8);
-            tree = new Tree(t, 0);
-            return tree;
+            int used = bs.readBits(8) + 1;
+            for (int i = 0; i < used; i++)
+            {
+                int symbol = bs.readBits(8);
+                codeLengths[symbol] = bs.readBits(4) + 1;
+            }
         }
         else
         {
-            Tree left = getHuffmanTree(bs);
-            Tree right = getHuffmanTree(bs);
-            tree = new Tree(left, right);
-            return tree;
+            int last = bs.readBits(8);
+            for (int i = 0; i <= last; i++)
+            {
+                if (bs.readBit())
+                {
+                    codeLengths[i] = bs.readBits(4) + 1;
+                }
+            }
         }
     }
     
     /**
-     * get BitStream of current Tree
-     * @return BitStream tree structure
+     * get BitStream of code lengths, in whichever form is shorter
+     * @return BitStream of code lengths
      */
     public BitStream getBitTree()
     {
-        return htree.encodedTree();
+        BitStream bs = new BitStream();
+        writeBitTree(bs);
+        bs.close();
+        return bs;
+    }
+
+    /**
+     * write the code lengths, in whichever form is shorter
+     * @param bs BitStream to write to
+     */
+    public void writeBitTree(BitStream bs)
+    {
+        int last = SYMBOLS - 1;
+        while (last > 0 && lengths[last] == 0) last--;
+        int used = 0;
+        for (int i = 0; i < SYMBOLS; i++)
+        {
+            if (lengths[i] > 0) used++;
+        }
+        
+        if (used * 12 < last + 1 + used * 4)
+        {
+            bs.pushBit(true);
+            bs.pushBits(used - 1, 8);
+            for (int i = 0; i <= last; i++)
+            {
+                if (lengths[i] > 0)
+                {
+                    bs.pushBits(i, 8);
+                    bs.pushBits(lengths[i] - 1, 4);
+                }
+            }
+        }
+        else
+        {
+            bs.pushBit(false);
+            bs.pushBits(last, 8);
+            for (int i = 0; i <= last; i++)
+            {
+                if (lengths[i] > 0)
+                {
+                    bs.pushBit(true);
+                    bs.pushBits(lengths[i] - 1, 4);
+                }
+                else
+                {
+                    bs.pushBit(false);
+                }
+            }
+        }
     }    
 
     /**
-     * Returns a String array of the bit codes for the 
-     * given frequency array
-     * @return Array of bit codes corresponding to the array index
+     * get code length of each symbol
+     * @return Array of code lengths size 256, 0 for unused symbols
      */
-    public int[][] getCodes()
+    public int[] getCodeLengths()
     {
-        if (htree.root == null) return null;
-        int[][] codes = new int[2][256];
-        assignCodes(htree.root, codes);
-        return codes;
+        return lengths;
     }
-    
-    private void assignCodes(Node root, int[][] codes)
+
+    /**
+     * Returns the canonical codes and their lengths, in arrays
+     * kept by the tree and filled again by the next call
+     * @return codes[0] bit codes, codes[1] code lengths, indexed by symbol
+     */
+    public int[][] getCodes()
     {
-        // TODO : use integers and bit math for speed
-        if (root.left != null)
+        Arrays.fill(codes[0], 0);
+        Arrays.fill(codes[1], 0);
+        int code = 0;
+        int k = 0;
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++)
         {
-            root.left.hcode = root.hcode << 1;
-            root.left.hlen = root.hlen + 1;
-            assignCodes(root.left, codes);
-            
-            root.right.hcode = root.hcode << 1 ^ 1;
-            root.right.hlen = root.hlen + 1;
-            assignCodes(root.right, codes);
+            for (int i = 0; i < counts[len]; i++, k++)
+            {
+                codes[0][symbols[k]] = code++;
+                codes[1][symbols[k]] = len;
+            }
+            code <<= 1;
         }
-        else
+        return codes;
+    }
+
+    /**
+     * select how getCode decodes
+     * @param tableBits bits looked up at once, HuffmanTable.MIN_TABLE_BITS
+     * to HuffmanTable.MAX_TABLE_BITS, or 0 to read a bit at a time
+     */
+    public void setTableBits(int tableBits)
+    {
+        this.table = tableBits == 0 ? null : new HuffmanTable(counts, symbols, tableBits);
+        this.tableBits = tableBits;
+    }
+
+    /**
+     * get lookup table decoder, built on first use
+     * @return HuffmanTable
+     */
+    public HuffmanTable getTable()
+    {
+        if (table == null)
         {
-            codes[0][root.index] = root.hcode;
-            codes[1][root.index] = root.hlen;
+            table = new HuffmanTable(counts, symbols, tableBits == 0 ? HuffmanTable.DEFAULT_TABLE_BITS : tableBits);
         }
+        return table;
     }
 
     /**
      * decodes individual value from BitStream of Huffman Codes
-     * Wrapper for method in Tree
+     * with the lookup table, unless set to read a bit at a time
      * @param bs BitStream of Huffman codes
      * @return integer encoded value
      */
     public int getCode(BitStream bs)
     {
-        return htree.getCode(bs);
+        if (tableBits > 0) return getTable().decode(bs);
+        
+        // a bit at a time, using the first code of each length
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++)
+        {
+            code |= bs.readBit() ? 1 : 0;
+            int count = counts[len];
+            if (code - first < count)
+            {
+                return symbols[index + code - first];
+            }
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+        throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
     }
     
     public static int[] getFrequencies(byte[] bank)
@@ -0,0 +1,119 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.lzip;
+
+import java.util.Arrays;
+import lznp.entropy.HuffmanCoder;
+
+/**
+ * BlockAnalyzer class
+ * chooses the BlockMode of a block from a sample of it. A few chunks spread
+ * over the block are copied together, and the coded length of each mode is
+ * estimated from the Huffman code lengths of their byte counts, and of the
+ * literal and match length counts of an LZP pass over them
+ * @author /u/Philboyd_Studge
+ */
+class BlockAnalyzer
+{
+    // chunks sampled from each block, the first at its start and the last at its end
+    static final int CHUNKS = 4;
+    // longest chunk, in bytes
+    static final int MAX_CHUNK = 1 << 12;
+    // the sample is at most 1/BUDGET of the block, so sampling
+    // costs a small part of compressing it
+    static final int BUDGET = 16;
+    // ENTROPY has to beat the LZP estimate by 1/LZP_MARGIN, as the
+    // sample misses matches reaching outside it
+    private static final int LZP_MARGIN = 16;
+    // entropy coding has to save 1/STORED_MARGIN to be worth decoding
+    private static final int STORED_MARGIN = 64;
+
+    private final CompressorContext context;
+    private final HuffmanCoder huffman = new HuffmanCoder();
+    private byte[] sample = new byte[0];
+    private int sampleLength;
+    private final int[] counts = new int[256];
+
+    /**
+     * Creates an analyzer with its own context for the LZP pass
+     * @param contextBits context table hash bits of the blocks analyzed,
+     * a sample needs no more than ContextTable.DEFAULT_BITS
+     */
+    BlockAnalyzer(int contextBits)
+    {
+        context = new CompressorContext(Math.min(contextBits, ContextTable.DEFAULT_BITS));
+        context.setAnalyze(false);
+    }
+
+    /**
+     * length of the last sample taken
+     * @return integer bytes, 0 if the block was too short to sample
+     */
+    int getSampleLength()
+    {
+        return sampleLength;
+    }
+
+    /**
+     * choose the mode giving the shortest block. Blocks shorter than
+     * LZNF.MIN_BLOCK_SIZE are not sampled and are LZP
+     * @param in byte array holding the block
+     * @param offset start of the block
+     * @param length length of the block
+     * @return BlockMode to code the block with
+     */
+    BlockMode analyze(byte[] in, int offset, int length)
+    {
+        if (length < LZNF.MIN_BLOCK_SIZE)
+        {
+            sampleLength = 0;
+            return BlockMode.LZP;
+        }
+        int chunk = Math.min(MAX_CHUNK, length / (CHUNKS * BUDGET));
+        sampleLength = chunk * CHUNKS;
+        if (sample.length < sampleLength) sample = new byte[CHUNKS * MAX_CHUNK];
+        for (int i = 0; i < CHUNKS; i++)
+        {
+            int position = (int) ((long) (length - chunk) * i / (CHUNKS - 1));
+            System.arraycopy(in, offset + position, sample, i * chunk, chunk);
+        }
+
+        long stored = 8L * sampleLength;
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < sampleLength; i++)
+        {
+            counts[sample[i] & 0xff]++;
+        }
+        long entropy = bits(counts);
+        Compress zip = context.compressor(sample, 0, sampleLength);
+        zip.match();
+        long lzp = bits(zip.getLiteralCounts()) + bits(zip.getMatchCounts());
+
+        if (stored <= entropy + entropy / STORED_MARGIN && stored <= lzp) return BlockMode.STORED;
+        if (entropy + entropy / LZP_MARGIN < lzp) return BlockMode.ENTROPY;
+        return BlockMode.LZP;
+    }
+
+    /**
+     * Huffman coded length of symbols
+     * @param counts array of 256 symbol counts
+     * @return long bits
+     */
+    private long bits(int[] counts)
+    {
+        huffman.build(counts);
+        return huffman.getEncodedBits();
+    }
+}
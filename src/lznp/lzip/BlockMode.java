@@ -0,0 +1,58 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.lzip;
+
+import lznp.exception.NotValidFileException;
+
+/**
+ * BlockMode enum
+ * how a block is coded, stored as a byte after the block checksum
+ * from container version 3. Blocks of earlier versions are all LZP.
+ * Compress picks one for each block with a BlockAnalyzer
+ * @author /u/Philboyd_Studge
+ */
+public enum BlockMode
+{
+    /** LZP literals and match lengths, each entropy coded */
+    LZP,
+    /** the bytes as they are, for data that does not compress */
+    STORED,
+    /** the bytes entropy coded as literals without LZP, for data with
+     * skewed byte counts but few repeats */
+    ENTROPY;
+
+    private static final BlockMode[] MODES = values();
+
+    /**
+     * get id stored in the block
+     * @return integer id
+     */
+    public int getId()
+    {
+        return ordinal();
+    }
+
+    /**
+     * mode of a stored id
+     * @param id byte read after the block checksum
+     * @return BlockMode
+     * @throws NotValidFileException if the id is not a mode
+     */
+    public static BlockMode of(int id)
+    {
+        if (id < 0 || id >= MODES.length) throw new NotValidFileException("Not a valid LZNF File.");
+        return MODES[id];
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.lzip;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import lznp.exception.InvalidChecksumException;
+import lznp.exception.NotValidFileException;
+
+/**
+ * CodecMetrics class
+ * process-wide counters of every block compressed or decompressed,
+ * registered with the platform MBean server as OBJECT_NAME when first used.
+ * Set the system property lznp.jmx=false to leave it unregistered.
+ * Counters are LongAdders, so concurrent callers do not contend on them.
+ * Each failure is counted once, where it is detected: checksum failures
+ * by the block or file check that found them, container errors by the
+ * LZNF method or stream that was called, and file I/O errors by the LZNF
+ * method. I/O errors of a caller's own streams are left to the caller
+ * @author /u/Philboyd_Studge
+ */
+public final class CodecMetrics implements CodecMetricsMBean
+{
+    public static final String OBJECT_NAME = "lznp:type=CodecMetrics";
+
+    private static final CodecMetrics INSTANCE = new CodecMetrics();
+
+    static
+    {
+        if (Boolean.parseBoolean(System.getProperty("lznp.jmx", "true")))
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            }
+            catch (JMException | SecurityException e)
+            {
+                // already registered by another class loader, or not allowed
+            }
+        }
+    }
+
+    /**
+     * counters of one direction
+     */
+    private static final class Counters
+    {
+        final LongAdder operations = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        void record(long in, long out, long time)
+        {
+            operations.increment();
+            bytesIn.add(in);
+            bytesOut.add(out);
+            nanos.add(time);
+            latency.record(time);
+        }
+
+        void reset()
+        {
+            operations.reset();
+            bytesIn.reset();
+            bytesOut.reset();
+            errors.reset();
+            nanos.reset();
+            latency.reset();
+        }
+    }
+
+    private final Counters compress = new Counters();
+    private final Counters decompress = new Counters();
+    private final LongAdder checksumFailures = new LongAdder();
+    private final LongAdder invalidFileErrors = new LongAdder();
+
+    private CodecMetrics()
+    {
+    }
+
+    /**
+     * get the process-wide metrics
+     * @return CodecMetrics
+     */
+    public static CodecMetrics getInstance()
+    {
+        return INSTANCE;
+    }
+
+    void recordCompress(long bytesIn, long bytesOut, long nanos)
+    {
+        compress.record(bytesIn, bytesOut, nanos);
+    }
+
+    void recordDecompress(long bytesIn, long bytesOut, long nanos)
+    {
+        decompress.record(bytesIn, bytesOut, nanos);
+    }
+
+    void compressFailed(Throwable t)
+    {
+        count(compress, t);
+    }
+
+    void decompressFailed(Throwable t)
+    {
+        count(decompress, t);
+    }
+
+    private void count(Counters counters, Throwable t)
+    {
+        counters.errors.increment();
+        if (t instanceof InvalidChecksumException) checksumFailures.increment();
+        else if (t instanceof NotValidFileException) invalidFileErrors.increment();
+    }
+
+    @Override
+    public long getCompressOperations() { return compress.operations.sum(); }
+
+    @Override
+    public long getCompressBytesIn() { return compress.bytesIn.sum(); }
+
+    @Override
+    public long getCompressBytesOut() { return compress.bytesOut.sum(); }
+
+    @Override
+    public long getCompressErrors() { return compress.errors.sum(); }
+
+    @Override
+    public long getCompressTotalNanos() { return compress.nanos.sum(); }
+
+    @Override
+    public long getCompressLatencyP50Nanos() { return compress.latency.percentile(0.5); }
+
+    @Override
+    public long getCompressLatencyP99Nanos() { return compress.latency.percentile(0.99); }
+
+    @Override
+    public long getCompressLatencyP999Nanos() { return compress.latency.percentile(0.999); }
+
+    @Override
+    public long getCompressLatencyMaxNanos() { return compress.latency.max(); }
+
+    @Override
+    public long getDecompressOperations() { return decompress.operations.sum(); }
+
+    @Override
+    public long getDecompressBytesIn() { return decompress.bytesIn.sum(); }
+
+    @Override
+    public long getDecompressBytesOut() { return decompress.bytesOut.sum(); }
+
+    @Override
+    public long getDecompressErrors() { return decompress.errors.sum(); }
+
+    @Override
+    public long getDecompressTotalNanos() { return decompress.nanos.sum(); }
+
+    @Override
+    public long getDecompressLatencyP50Nanos() { return decompress.latency.percentile(0.5); }
+
+    @Override
+    public long getDecompressLatencyP99Nanos() { return decompress.latency.percentile(0.99); }
+
+    @Override
+    public long getDecompressLatencyP999Nanos() { return decompress.latency.percentile(0.999); }
+
+    @Override
+    public long getDecompressLatencyMaxNanos() { return decompress.latency.max(); }
+
+    @Override
+    public long getChecksumFailures() { return checksumFailures.sum(); }
+
+    @Override
+    public long getInvalidFileErrors() { return invalidFileErrors.sum(); }
+
+    @Override
+    public void reset()
+    {
+        compress.reset();
+        decompress.reset();
+        checksumFailures.reset();
+        invalidFileErrors.reset();
+    }
+}
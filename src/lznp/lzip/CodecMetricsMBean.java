@@ -0,0 +1,148 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.lzip;
+
+/**
+ * CodecMetricsMBean interface
+ * JMX view of CodecMetrics, registered as CodecMetrics.OBJECT_NAME
+ * @author /u/Philboyd_Studge
+ */
+public interface CodecMetricsMBean
+{
+    /**
+     * number of blocks compressed
+     * @return long count
+     */
+    long getCompressOperations();
+
+    /**
+     * bytes given to compress
+     * @return long bytes
+     */
+    long getCompressBytesIn();
+
+    /**
+     * bytes produced by compress
+     * @return long bytes
+     */
+    long getCompressBytesOut();
+
+    /**
+     * number of failed compress calls
+     * @return long count
+     */
+    long getCompressErrors();
+
+    /**
+     * cumulative nanoseconds spent in compress
+     * @return long nanoseconds
+     */
+    long getCompressTotalNanos();
+
+    /**
+     * median compress latency of a block
+     * @return long nanoseconds
+     */
+    long getCompressLatencyP50Nanos();
+
+    /**
+     * 99th percentile compress latency of a block
+     * @return long nanoseconds
+     */
+    long getCompressLatencyP99Nanos();
+
+    /**
+     * 99.9th percentile compress latency of a block
+     * @return long nanoseconds
+     */
+    long getCompressLatencyP999Nanos();
+
+    /**
+     * longest compress latency of a block
+     * @return long nanoseconds
+     */
+    long getCompressLatencyMaxNanos();
+
+    /**
+     * number of blocks decompressed
+     * @return long count
+     */
+    long getDecompressOperations();
+
+    /**
+     * bytes given to decompress
+     * @return long bytes
+     */
+    long getDecompressBytesIn();
+
+    /**
+     * bytes produced by decompress
+     * @return long bytes
+     */
+    long getDecompressBytesOut();
+
+    /**
+     * number of failed decompress calls
+     * @return long count
+     */
+    long getDecompressErrors();
+
+    /**
+     * cumulative nanoseconds spent in decompress
+     * @return long nanoseconds
+     */
+    long getDecompressTotalNanos();
+
+    /**
+     * median decompress latency of a block
+     * @return long nanoseconds
+     */
+    long getDecompressLatencyP50Nanos();
+
+    /**
+     * 99th percentile decompress latency of a block
+     * @return long nanoseconds
+     */
+    long getDecompressLatencyP99Nanos();
+
+    /**
+     * 99.9th percentile decompress latency of a block
+     * @return long nanoseconds
+     */
+    long getDecompressLatencyP999Nanos();
+
+    /**
+     * longest decompress latency of a block
+     * @return long nanoseconds
+     */
+    long getDecompressLatencyMaxNanos();
+
+    /**
+     * number of InvalidChecksumException failures
+     * @return long count
+     */
+    long getChecksumFailures();
+
+    /**
+     * number of NotValidFileException failures
+     * @return long count
+     */
+    long getInvalidFileErrors();
+
+    /**
+     * set all counters and latencies back to 0
+     */
+    void reset();
+}
@@ -14,26 +14,44 @@
  */
 package lznp.lzip;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
+import lznp.event.CompressEvent;
+import lznp.event.Events;
 import lznp.util.Bank;
-import lznp.util.BitStream;
 import lznp.util.Utils;
 
 /**
  * Compress class
  * Compresses file data using LZNF order-3 (LZP encoding using no flags for literal/length)
- * and then Huffman encodes the compressed data
+ * and then Huffman encodes the compressed data. Large blocks are sampled
+ * first, and ones LZP would not help are entropy coded without it.
+ * A block that would not shrink is stored as it is
  * @author /u/Philboyd_Studge
  */
 public class Compress
 {
-    private final byte[] inStream;
+    private final CompressorContext context;
+    private byte[] inStream;
+    private int inOffset;
+    private int inLength;
+    private ByteBuffer words;
     private byte[] outStream;
     private byte[] matchStream;
     private CompressedBlock literals;
     private CompressedBlock matches;
-    private HashMap<Integer, Integer> hashTable;
+    private ContextTable hashTable;
+    private boolean interleave;
+    private BlockAnalyzer analyzer;
+    private final CompressionStats stats = new CompressionStats();
+    private final PhaseTimer timer = new PhaseTimer(stats, -1);
+    private int blockId = -1;
+    private BlockMode mode = BlockMode.LZP;
+    private final int[] litCounts = new int[256];
+    private final int[] matchCounts = new int[256];
+    private final long[] matchLengths = new long[CompressionStats.HISTOGRAM_BUCKETS];
+    private int literalCount;
+    private int matchCount;
 
     /**
      * Constructor, takes a Bank as input
@@ -41,12 +59,96 @@ public class Compress
      */
     public Compress(Bank inBank)
     {
-        this.inStream = inBank.getBank();
-        this.outStream = new byte[inStream.length * 2];
-        this.matchStream = new byte[inStream.length];
-        literals = new CompressedBlock();
-        matches = new CompressedBlock();
-        hashTable = new HashMap<>();
+        this(inBank, ContextTable.DEFAULT_BITS);
+    }
+
+    /**
+     * Constructor, takes a Bank as input and the size of the context table
+     * @param inBank Bank with byte array of file to be compressed
+     * @param contextBits context table holds 2^contextBits positions
+     */
+    public Compress(Bank inBank, int contextBits)
+    {
+        this(inBank.getBank(), contextBits);
+    }
+
+    /**
+     * Constructor, takes a single block of input and the size of the context table
+     * @param inStream byte array of block to be compressed
+     * @param contextBits context table holds 2^contextBits positions
+     */
+    public Compress(byte[] inStream, int contextBits)
+    {
+        this(inStream, new CompressorContext(contextBits));
+    }
+
+    /**
+     * Constructor, takes a single block of input and the context to reuse.
+     * The literal and match blocks belong to the context, so they are only
+     * valid until the context compresses another block
+     * @param inStream byte array of block to be compressed
+     * @param context CompressorContext with buffers and context table
+     */
+    public Compress(byte[] inStream, CompressorContext context)
+    {
+        this(inStream, 0, inStream.length, context);
+    }
+
+    /**
+     * Constructor, takes part of an array as the block and the context to reuse
+     * @param inStream byte array holding the block to be compressed
+     * @param offset start of the block
+     * @param length length of the block
+     * @param context CompressorContext with buffers and context table
+     */
+    public Compress(byte[] inStream, int offset, int length, CompressorContext context)
+    {
+        this.context = context;
+        reset(inStream, offset, length);
+    }
+
+    /**
+     * take another block, keeping the arrays and stats of this Compress,
+     * so a context compressing many blocks does not allocate them each time.
+     * The stats returned by the last compress() are cleared
+     * @param inStream byte array holding the block to be compressed
+     * @param offset start of the block
+     * @param length length of the block
+     * @return this Compress
+     */
+    Compress reset(byte[] inStream, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset > inStream.length - length)
+        {
+            throw new IndexOutOfBoundsException("Block " + offset + "+" + length + " outside array of " + inStream.length);
+        }
+        this.inStream = inStream;
+        this.inOffset = offset;
+        this.inLength = length;
+        if (words == null || words.array() != inStream) words = Utils.wordBuffer(inStream);
+        this.outStream = context.literalBuffer(length);
+        this.matchStream = context.matchBuffer(length);
+        literals = context.literals();
+        matches = context.matches();
+        // positions in the table are indexes of inStream
+        hashTable = context.table(offset + length);
+        interleave = context.isInterleave();
+        analyzer = context.isAnalyze() ? context.analyzer() : null;
+        stats.reset();
+        setBlockId(-1);
+        mode = BlockMode.LZP;
+        literalCount = 0;
+        matchCount = 0;
+        return this;
+    }
+
+    /**
+     * get number of context table hash bits
+     * @return integer bits
+     */
+    public int getContextBits()
+    {
+        return hashTable.getBits();
     }
     
     public CompressedBlock getLiterals()
@@ -58,88 +160,332 @@ public class Compress
     {
         return matches;
     }
+
+    /**
+     * get how compress() coded the block
+     * @return BlockMode, LZP until compressed
+     */
+    public BlockMode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * get the block itself, the payload of a STORED block
+     * @return ByteBuffer of the input block
+     */
+    public ByteBuffer getStoredBlock()
+    {
+        return ByteBuffer.wrap(inStream, inOffset, inLength).slice();
+    }
+
+    /**
+     * get length of the block
+     * @return integer bytes
+     */
+    public int getLength()
+    {
+        return inLength;
+    }
+
+    /**
+     * copy the block itself, the payload of a STORED block, to part of an array
+     * @param dst byte array with getLength() bytes free at offset
+     * @param offset position to copy to
+     * @return position after the block
+     */
+    public int copyStoredBlock(byte[] dst, int offset)
+    {
+        System.arraycopy(inStream, inOffset, dst, offset, inLength);
+        return offset + inLength;
+    }
+
+    /**
+     * get counts of each literal from match()
+     * @return array of 256 integers
+     */
+    int[] getLiteralCounts()
+    {
+        return litCounts;
+    }
+
+    /**
+     * get counts of each match length symbol from match()
+     * @return array of 256 integers
+     */
+    int[] getMatchCounts()
+    {
+        return matchCounts;
+    }
+
+    /**
+     * get timings and counts of compress()
+     * @return CompressionStats
+     */
+    public CompressionStats getStats()
+    {
+        return stats;
+    }
+
+    /**
+     * set block number reported in JFR events
+     * @param blockId block number in the file or stream
+     */
+    void setBlockId(int blockId)
+    {
+        this.blockId = blockId;
+        timer.setBlockId(blockId);
+    }
+
+    /**
+     * get block number reported in JFR events
+     * @return integer block number, -1 if not set
+     */
+    int getBlockId()
+    {
+        return blockId;
+    }
+
+    /**
+     * get timer adding to the stats of this block
+     * @return PhaseTimer
+     */
+    PhaseTimer getTimer()
+    {
+        return timer;
+    }
+    
+    /**
+     * compress the block, counting it in CodecMetrics
+     * and recording a CompressEvent
+     * @return CompressionStats of this block
+     */
+    public CompressionStats compress()
+    {
+        CompressEvent event = Events.beginCompress();
+        long start = System.nanoTime();
+        try
+        {
+            encode();
+        }
+        catch (RuntimeException e)
+        {
+            CodecMetrics.getInstance().compressFailed(e);
+            throw e;
+        }
+        CodecMetrics.getInstance().recordCompress(inLength, stats.getCompressedBytes(), System.nanoTime() - start);
+        if (event != null) commit(event);
+        return stats;
+    }
+
+    /**
+     * commit a CompressEvent if it is over its threshold
+     * @param event CompressEvent begun by compress()
+     */
+    private void commit(CompressEvent event)
+    {
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.blockId = blockId;
+            event.uncompressedBytes = inLength;
+            event.compressedBytes = stats.getCompressedBytes();
+            event.commit();
+        }
+    }
     
+    /**
+     * choose the BlockMode, sampling large blocks, and code the block with it
+     */
+    private void encode()
+    {
+        BlockMode chosen = BlockMode.LZP;
+        if (analyzer != null)
+        {
+            timer.start(CompressionStats.Phase.ANALYZE);
+            chosen = analyzer.analyze(inStream, inOffset, inLength);
+            timer.stop(analyzer.getSampleLength());
+        }
+        if (chosen != BlockMode.LZP)
+        {
+            // every byte of the block is a literal
+            stats.setBlock(inLength);
+            if (chosen == BlockMode.STORED) store();
+            else encodeEntropy(timer);
+            return;
+        }
+        
+        timer.start(CompressionStats.Phase.MATCH);
+        match();
+        timer.next(inLength, CompressionStats.Phase.HISTOGRAM);
+        literals.addFrequencies(litCounts);
+        matches.addFrequencies(matchCounts);
+        // both streams of a block are interleaved or neither,
+        // so the decoder keeps to one loop
+        boolean interleaved = interleave && literalCount >= CompressedBlock.MIN_INTERLEAVED_SYMBOLS;
+        literals.setInterleaved(interleaved);
+        matches.setInterleaved(interleaved);
+        timer.next(literalCount + matchCount, CompressionStats.Phase.HUFFMAN_BUILD);
+        
+        literals.buildTree();
+        matches.buildTree();
+        // both length prefixed tables and streams against the bytes
+        // themselves, storing when the estimate is no shorter skips the encode
+        if (16L + literals.getEstimatedLength() + matches.getEstimatedLength() >= inLength)
+        {
+            timer.stop(literals.getTreeStreamLength() + matches.getTreeStreamLength());
+            store();
+            return;
+        }
+        timer.next(literals.getTreeStreamLength() + matches.getTreeStreamLength(), CompressionStats.Phase.BIT_ENCODE);
+        
+        literals.encode(outStream, literalCount);
+        matches.encode(matchStream, matchCount);
+        timer.stop(literals.getStreamLength() + matches.getStreamLength());
+        
+        if ((long) literals.getPackedLength() + matches.getPackedLength() >= inLength)
+        {
+            store();
+            return;
+        }
+        mode = BlockMode.LZP;
+        stats.setStreams(literals.getTreeStreamLength(), literals.getStreamLength(),
+                matches.getTreeStreamLength(), matches.getStreamLength());
+    }
+
      /**
-     * LZNF routine, based on LZP by Charles Bloom, modification idea by Lucas Marsh
+     * LZNF routine, based on LZP by Charles Bloom, modification idea by Lucas Marsh.
+     * Fills the literal and match buffers of the context and counts their symbols
      */
-    public void compress()
+    void match()
     {
+        final byte[] in = inStream;
+        final int start = inOffset;
+        final int end = inOffset + inLength;
+        final byte[] out = outStream;
+        final byte[] match = matchStream;
+        final ContextTable table = hashTable;
+        final ByteBuffer words = this.words;
+        final int[] litCounts = this.litCounts;
+        final int[] matchCounts = this.matchCounts;
+        final long[] matchLengths = this.matchLengths;
+        Arrays.fill(litCounts, 0);
+        Arrays.fill(matchCounts, 0);
+        Arrays.fill(matchLengths, 0);
+        int lookups = 0;
+        int hits = 0;
+        
         int matchLen;
-        int current = 0;
+        int current = start;
         int pointer;
         int outPointer = 0;
         int matchPointer = 0;
         
+        // rolling register of the last four bytes, oldest in the high byte
+        int context = 0;
         
-        // load first three bytes as literals
-        for (int i = 0; i < 4; i++)
+        // load first four bytes as literals
+        for (int i = 0; i < Math.min(4, inLength); i++)
         {
-            outStream[i] = inStream[i];
-            literals.addFrequency((byte) inStream[i] & 0xff);
+            out[i] = in[start + i];
+            litCounts[in[start + i] & 0xff]++;
+            context = context << 8 | in[start + i] & 0xff;
             current++;
             outPointer++;
         }
         
         // main compression loop
-        while (current < inStream.length)
+        while (current < end)
         {
-            // get context
-            byte[] contextBytes = { inStream[current - 4], inStream[current - 3], inStream[current - 2], inStream[current - 1]};
-            int context = Utils.byteToInt(contextBytes);
-            
-            // see if it is already in the hashTable, if so, get last pointer
-            
-            pointer = hashTable.getOrDefault(context, 0);
-            
-            // put current pointer to hash table
-            hashTable.put(context, current);
+            // get last pointer for this context and put current pointer to hash table
+            pointer = table.getAndSet(context, current);
+            lookups++;
             
             if (pointer > 0)
             {
-                matchLen = 0;
-                while (inStream[pointer] == inStream[current])
-                {
-                    pointer++;
-                    current++;
-                    matchLen++;
-                    if (inStream.length - current <= 3) break;
-                }
+                hits++;
+                // a match stops three bytes short of the end, or after one byte there
+                matchLen = Utils.matchLength(words, pointer, current, Math.max(1, end - 3 - current));
+                current += matchLen;
+                matchLengths[CompressionStats.bucket(matchLen)]++;
                 if (matchLen > 0)
                 {
                     while (matchLen >= 255)
                     {
-                        matchStream[matchPointer] = (byte) 255;
-                        matches.addFrequency((byte)255);
+                        match[matchPointer] = (byte) 255;
+                        matchCounts[255]++;
                         matchPointer++;
                         matchLen -= 255;
                     }
                     
-                    matchStream[matchPointer] = (byte) (matchLen & 0xff);
-                    matchPointer++;
-                    matches.addFrequency((byte) matchLen);
-                       
-                }
-                else
-                {
-                    matchStream[matchPointer] = (byte) 0;
-                    matchPointer++;
-                    matches.addFrequency((byte) 0);
+                    // reload the context from the last four bytes matched
+                    context = (in[current - 4] & 0xff) << 24 | (in[current - 3] & 0xff) << 16
+                            | (in[current - 2] & 0xff) << 8 | in[current - 1] & 0xff;
                 }
+                match[matchPointer] = (byte) matchLen;
+                matchCounts[matchLen]++;
+                matchPointer++;
             }
 
-            if (current >= inStream.length) break;
-            outStream[outPointer] = inStream[current];
-            literals.addFrequency((byte) inStream[current] & 0xff);
+            if (current >= end) break;
+            out[outPointer] = in[current];
+            litCounts[in[current] & 0xff]++;
+            context = context << 8 | in[current] & 0xff;
             current++;
             outPointer++;
         }
         
-        outStream = Arrays.copyOfRange(outStream, 0, outPointer);
-        System.out.println("literal lengths: " + outStream.length);
-        matchStream = Arrays.copyOfRange(matchStream, 0, matchPointer);
+        stats.setBlock(inLength, outPointer, lookups, hits, matchLengths);
+        literalCount = outPointer;
+        matchCount = matchPointer;
+    }
+
+    /**
+     * code the block as ENTROPY, its bytes as literals without the LZP pass.
+     * Stored instead if that is no longer
+     * @param timer PhaseTimer of encode()
+     */
+    private void encodeEntropy(PhaseTimer timer)
+    {
+        timer.start(CompressionStats.Phase.HISTOGRAM);
+        final int[] counts = litCounts;
+        Arrays.fill(counts, 0);
+        for (int i = inOffset; i < inOffset + inLength; i++)
+        {
+            counts[inStream[i] & 0xff]++;
+        }
+        literals.addFrequencies(counts);
+        literals.setInterleaved(interleave && inLength >= CompressedBlock.MIN_INTERLEAVED_SYMBOLS);
+        timer.next(inLength, CompressionStats.Phase.HUFFMAN_BUILD);
+        
+        literals.buildTree();
+        if (8L + literals.getEstimatedLength() >= inLength)
+        {
+            timer.stop(literals.getTreeStreamLength());
+            store();
+            return;
+        }
+        timer.next(literals.getTreeStreamLength(), CompressionStats.Phase.BIT_ENCODE);
         
-        literals.encodeHuffman(outStream);
-        matches.encodeHuffman(matchStream);
+        literals.encode(inStream, inOffset, inLength);
+        timer.stop(literals.getStreamLength());
+        
+        if (literals.getPackedLength() >= inLength)
+        {
+            store();
+            return;
+        }
+        mode = BlockMode.ENTROPY;
+        stats.setStreams(literals.getTreeStreamLength(), literals.getStreamLength(), 0, 0);
+    }
 
-    }  
+    /**
+     * code the block as STORED, so it is never packed longer than
+     * its own bytes and the block header
+     */
+    private void store()
+    {
+        mode = BlockMode.STORED;
+        stats.setStreams(0, inLength, 0, 0);
+    }
 }
@@ -17,8 +17,12 @@
 package lznp.lzip;
 
 import java.nio.ByteBuffer;
-import lznp.huffman.HuffmanTree;
+import java.util.Arrays;
+import lznp.entropy.EntropyCoder;
+import lznp.entropy.HuffmanCoder;
+import lznp.entropy.RansCoder;
 import lznp.util.BitStream;
+import lznp.util.Utils;
 
 /**
  *
@@ -26,14 +30,63 @@ import lznp.util.BitStream;
  */
 public class CompressedBlock
 {
+    // streams shorter than this are not worth the jump table
+    public static final int MIN_INTERLEAVED_SYMBOLS = 4096;
+    
+    // jump table, outer padBits byte, and a padBits byte and part used
+    // byte for each sub-stream past the first
+    static final int INTERLEAVED_OVERHEAD = 4 * EntropyCoder.WAYS + 1 + 2 * (EntropyCoder.WAYS - 1);
+    
     private BitStream treeStream;
+    private final BitStream huffmanTable = new BitStream();
+    private final BitStream ransTable = new BitStream();
     private BitStream stream;
     private int[] frequencies;
+    private final HuffmanCoder huffman = new HuffmanCoder();
+    private final RansCoder rans = new RansCoder();
+    private EntropyCoder coder;
+    private int huffmanLength;
+    private int estimatedLength;
+    private boolean interleaved;
+    private final BitStream[] ways = new BitStream[EntropyCoder.WAYS];
+    private byte[] split = new byte[0];
     
     public CompressedBlock()
     {
         frequencies = new int[256];
     }
+
+    /**
+     * set whether the stream is split into interleaved sub-streams,
+     * which decode faster. Cleared by reset()
+     * @param interleaved true to interleave the stream
+     */
+    public void setInterleaved(boolean interleaved)
+    {
+        this.interleaved = interleaved;
+    }
+
+    /**
+     * test if the stream is split into sub-streams
+     * @return true if interleaved
+     */
+    public boolean isInterleaved()
+    {
+        return interleaved;
+    }
+
+    /**
+     * clear frequencies and code, so the block can be reused.
+     * The byte array of the stream is kept for the next encode
+     */
+    public void reset()
+    {
+        Arrays.fill(frequencies, 0);
+        coder = null;
+        treeStream = null;
+        interleaved = false;
+        estimatedLength = 0;
+    }
     
     public void addFrequency(int index)
     {
@@ -44,6 +97,24 @@ public class CompressedBlock
         frequencies[index & 0xff]++;
     }
     
+    /**
+     * add a whole histogram of counts at once
+     * @param counts array of integers size 256
+     */
+    public void addFrequencies(int[] counts)
+    {
+        for (int i = 0; i < 256; i++)
+        {
+            int count = counts[i];
+            while ((long) frequencies[i] + count >= Integer.MAX_VALUE / 2)
+            {
+                reduceFrequencies();
+                count /= 2;
+            }
+            frequencies[i] += count;
+        }
+    }
+
     private void reduceFrequencies()
     {
         for (int i = 0; i < frequencies.length; i++)
@@ -75,27 +146,205 @@ public class CompressedBlock
         return stream.length();
     }
     
+    /**
+     * build the entropy code and encode symbols, despite the name
+     * the coder may be any chosen by buildTree
+     * @param outStream byte array of symbols
+     */
     public void encodeHuffman(byte[] outStream)
     {
-        HuffmanTree tree = new HuffmanTree(frequencies);
-        treeStream = tree.getBitTree();
-        int[][] codes = tree.getCodes();
-        stream = new BitStream(outStream.length);
-        for (int i = 0; i < outStream.length; i++)
+        buildTree();
+        encode(outStream);
+    }
+    
+    /**
+     * get id of the EntropyCoder chosen by buildTree
+     * @return integer EntropyCoder id
+     */
+    public int getCoderId()
+    {
+        return coder.getId();
+    }
+
+    /**
+     * get length of the table and stream estimated by buildTree,
+     * close enough to choose a BlockMode before encoding
+     * @return integer bytes
+     */
+    public int getEstimatedLength()
+    {
+        return estimatedLength;
+    }
+
+    /**
+     * build the entropy code and stored table from the frequencies,
+     * with whichever coder gives the shorter table and stream
+     */
+    public void buildTree()
+    {
+        huffman.build(frequencies);
+        coder = huffman;
+        treeStream = table(huffman, huffmanTable);
+        // a Huffman stream is whole bytes and the padBits byte
+        huffmanLength = treeStream.length() + (int) Math.min((huffman.getEncodedBits() + 7) / 8 + 1, Integer.MAX_VALUE)
+                + (interleaved ? INTERLEAVED_OVERHEAD : 0);
+        estimatedLength = huffmanLength;
+        
+        rans.build(frequencies);
+        if (rans.getEncodedBits() != Long.MAX_VALUE)
         {
-            stream.pushBits(codes[0][outStream[i] & 0xff], codes[1][outStream[i] & 0xff]);
+            table(rans, ransTable);
+            if (ransTable.length() * 8L + rans.getEncodedBits() < huffmanLength * 8L)
+            {
+                coder = rans;
+                treeStream = ransTable;
+                estimatedLength = (int) (ransTable.length() + (rans.getEncodedBits() + 7) / 8 + 1
+                        + (interleaved ? INTERLEAVED_OVERHEAD : 0));
+            }
+        }
+    }
+
+    /**
+     * stored table of a coder, led by its id
+     * @param entropyCoder EntropyCoder built from the frequencies
+     * @param bs BitStream of the block to write the table to, emptied first
+     * @return BitStream of the table
+     */
+    private BitStream table(EntropyCoder entropyCoder, BitStream bs)
+    {
+        bs.reset(0);
+        bs.pushBits(entropyCoder.getId() | (interleaved ? EntropyCoder.INTERLEAVED : 0), 8);
+        entropyCoder.writeTable(bs);
+        bs.close();
+        return bs;
+    }
+    
+    /**
+     * encode symbols with the coder from buildTree
+     * @param outStream byte array of symbols
+     */
+    public void encode(byte[] outStream)
+    {
+        encode(outStream, outStream.length);
+    }
+
+    /**
+     * encode the first symbols of an array with the coder from buildTree
+     * @param outStream byte array of symbols
+     * @param length number of symbols to encode
+     */
+    public void encode(byte[] outStream, int length)
+    {
+        encode(outStream, 0, length);
+    }
+
+    /**
+     * encode part of an array with the coder from buildTree
+     * @param outStream byte array of symbols
+     * @param offset position of the first symbol
+     * @param length number of symbols to encode
+     */
+    public void encode(byte[] outStream, int offset, int length)
+    {
+        if (coder == null) buildTree();
+        encode(coder, outStream, offset, length);
+        
+        // the rANS length is estimated, so keep the stream no longer
+        // than Huffman would have made it
+        if (coder != huffman && treeStream.length() + stream.length() > huffmanLength)
+        {
+            // the Huffman table written by buildTree is still there
+            coder = huffman;
+            treeStream = huffmanTable;
+            encode(huffman, outStream, offset, length);
+        }
+    }
+
+    private void encode(EntropyCoder entropyCoder, byte[] outStream, int offset, int length)
+    {
+        // size the stream from the coded length, plus room for the
+        // final 8 byte write and the padBits byte
+        int size = (int) Math.min((entropyCoder.getEncodedBits() + 7) / 8 + 9, Integer.MAX_VALUE - INTERLEAVED_OVERHEAD);
+        int streamSize = size + (interleaved ? INTERLEAVED_OVERHEAD : 0);
+        if (stream == null) stream = new BitStream(streamSize);
+        else stream.reset(streamSize);
+        if (interleaved)
+        {
+            encodeInterleaved(entropyCoder, outStream, offset, length, size / EntropyCoder.WAYS + 9);
+        }
+        else
+        {
+            entropyCoder.encode(outStream, offset, length, stream);
+        }
+        stream.close();
+    }
+
+    /**
+     * code symbol i into sub-stream i % WAYS, then write the
+     * symbol count, jump table and sub-streams to the stream
+     * @param entropyCoder EntropyCoder built from the frequencies
+     * @param outStream byte array of symbols
+     * @param offset position of the first symbol
+     * @param length number of symbols to encode
+     * @param size expected size of each sub-stream
+     */
+    private void encodeInterleaved(EntropyCoder entropyCoder, byte[] outStream, int offset, int length, int size)
+    {
+        // gather the symbols of each sub-stream together so each
+        // is coded from one run of the array
+        if (split.length < length) split = new byte[length];
+        int start = 0;
+        for (int way = 0; way < EntropyCoder.WAYS; way++)
+        {
+            int count = (length - way + EntropyCoder.WAYS - 1) / EntropyCoder.WAYS;
+            for (int i = 0; i < count; i++)
+            {
+                split[start + i] = outStream[offset + way + i * EntropyCoder.WAYS];
+            }
+            if (ways[way] == null) ways[way] = new BitStream(size);
+            else ways[way].reset(size);
+            entropyCoder.encode(split, start, count, ways[way]);
+            ways[way].close();
+            start += count;
+        }
+        stream.pushBits(length, 32);
+        for (int way = 0; way < EntropyCoder.WAYS - 1; way++)
+        {
+            stream.pushBits(ways[way].length(), 32);
+        }
+        for (BitStream way : ways)
+        {
+            stream.pushStream(way);
         }
-        stream.close();        
     }
     
     public ByteBuffer pack()
     {
-        ByteBuffer bb = ByteBuffer.allocateDirect(treeStream.length() + stream.length() + 8);
-        bb.putInt(treeStream.length());
-        bb.put(treeStream.getBank());
-        bb.putInt(stream.length());
-        bb.put(stream.getBank());
-        bb.flip();
-        return bb;
+        byte[] bank = new byte[getPackedLength()];
+        pack(bank, 0);
+        return ByteBuffer.wrap(bank);
+    }
+
+    /**
+     * length of the tree and stream with their length prefixes
+     * @return integer bytes
+     */
+    public int getPackedLength()
+    {
+        return treeStream.length() + stream.length() + 8;
+    }
+
+    /**
+     * pack the tree and stream with their length prefixes into part of an array
+     * @param dst byte array with getPackedLength() bytes free at offset
+     * @param offset position to pack to
+     * @return position after the packed block
+     */
+    public int pack(byte[] dst, int offset)
+    {
+        Utils.intToByte(treeStream.length(), dst, offset);
+        offset = treeStream.copyTo(dst, offset + 4);
+        Utils.intToByte(stream.length(), dst, offset);
+        return stream.copyTo(dst, offset + 4);
     }
 }
@@ -0,0 +1,330 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.lzip;
+
+import java.util.Arrays;
+
+/**
+ * CompressionStats class
+ * nanosecond timings of each phase and counts from compressing or
+ * decompressing one block. Stats of several blocks are added up with merge().
+ * Match lengths are kept in power of two buckets: bucket 0 counts
+ * predictions that did not match, bucket n counts lengths from
+ * 2^(n-1) to 2^n - 1.
+ * @author /u/Philboyd_Studge
+ */
+public class CompressionStats
+{
+    public enum Phase
+    {
+        /** sampling the block to choose its BlockMode */
+        ANALYZE,
+        /** context hashing and match finding, with the symbol counts */
+        MATCH,
+        /** adding symbol counts to the literal and match blocks */
+        HISTOGRAM,
+        /** entropy codes and stored tables of both streams, Huffman or rANS */
+        HUFFMAN_BUILD,
+        /** writing the entropy coded streams */
+        BIT_ENCODE,
+        /** packing the streams into a container block */
+        PACK,
+        /** CRC32 checksums */
+        CRC,
+        /** rebuilding the entropy decode tables from the stored tables, and decoding interleaved streams whole */
+        HUFFMAN_DECODE,
+        /** rebuilding the data, reading literals and match lengths from the BitStreams as needed, or copying a stored block */
+        LZP_DECODE
+    }
+
+    public static final int HISTOGRAM_BUCKETS = 32;
+
+    private final long[] nanos = new long[Phase.values().length];
+    private final long[] matchLengths = new long[HISTOGRAM_BUCKETS];
+    private long blocks;
+    private long uncompressedBytes;
+    private long compressedBytes;
+    private long literals;
+    private long matches;
+    private long lookups;
+    private long hits;
+    private long literalTreeBytes;
+    private long literalStreamBytes;
+    private long matchTreeBytes;
+    private long matchStreamBytes;
+
+    /**
+     * histogram bucket of a match length
+     * @param length match length, 0 for a failed prediction
+     * @return bucket index
+     */
+    static int bucket(int length)
+    {
+        return 32 - Integer.numberOfLeadingZeros(length);
+    }
+
+    void addTime(Phase phase, long time)
+    {
+        nanos[phase.ordinal()] += time;
+    }
+
+    void setBlock(int uncompressed, long literals, long lookups, long hits, long[] matchLengths)
+    {
+        this.blocks = 1;
+        this.uncompressedBytes = uncompressed;
+        this.literals = literals;
+        this.lookups = lookups;
+        this.hits = hits;
+        this.matches = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++)
+        {
+            this.matchLengths[i] = matchLengths[i];
+            if (i > 0) this.matches += matchLengths[i];
+        }
+    }
+
+    /**
+     * set the counts of a block without matches, every byte a literal
+     * @param uncompressed length of the block
+     */
+    void setBlock(int uncompressed)
+    {
+        Arrays.fill(matchLengths, 0);
+        setBlock(uncompressed, uncompressed, 0, 0, matchLengths);
+    }
+
+    void setStreams(long literalTree, long literalStream, long matchTree, long matchStream)
+    {
+        this.literalTreeBytes = literalTree;
+        this.literalStreamBytes = literalStream;
+        this.matchTreeBytes = matchTree;
+        this.matchStreamBytes = matchStream;
+        this.compressedBytes = literalTree + literalStream + matchTree + matchStream;
+    }
+
+    void setCompressedBytes(long compressedBytes)
+    {
+        this.compressedBytes = compressedBytes;
+    }
+
+    /**
+     * clear timings and counts, so a Compress or Decompress kept by a
+     * context can reuse its stats for the next block
+     */
+    void reset()
+    {
+        Arrays.fill(nanos, 0);
+        Arrays.fill(matchLengths, 0);
+        blocks = 0;
+        uncompressedBytes = 0;
+        compressedBytes = 0;
+        literals = 0;
+        matches = 0;
+        lookups = 0;
+        hits = 0;
+        literalTreeBytes = 0;
+        literalStreamBytes = 0;
+        matchTreeBytes = 0;
+        matchStreamBytes = 0;
+    }
+
+    /**
+     * add the stats of another block or call to these
+     * @param other CompressionStats to add
+     */
+    public synchronized void merge(CompressionStats other)
+    {
+        for (int i = 0; i < nanos.length; i++) nanos[i] += other.nanos[i];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) matchLengths[i] += other.matchLengths[i];
+        blocks += other.blocks;
+        uncompressedBytes += other.uncompressedBytes;
+        compressedBytes += other.compressedBytes;
+        literals += other.literals;
+        matches += other.matches;
+        lookups += other.lookups;
+        hits += other.hits;
+        literalTreeBytes += other.literalTreeBytes;
+        literalStreamBytes += other.literalStreamBytes;
+        matchTreeBytes += other.matchTreeBytes;
+        matchStreamBytes += other.matchStreamBytes;
+    }
+
+    /**
+     * time spent in a phase
+     * @param phase Phase
+     * @return long nanoseconds
+     */
+    public long getNanos(Phase phase)
+    {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * time spent in all phases
+     * @return long nanoseconds
+     */
+    public long getTotalNanos()
+    {
+        long total = 0;
+        for (long n : nanos) total += n;
+        return total;
+    }
+
+    /**
+     * number of blocks added up
+     * @return long block count
+     */
+    public long getBlocks()
+    {
+        return blocks;
+    }
+
+    /**
+     * length of original data
+     * @return long bytes
+     */
+    public long getUncompressedBytes()
+    {
+        return uncompressedBytes;
+    }
+
+    /**
+     * length of packed blocks, or of the four streams if not packed
+     * @return long bytes
+     */
+    public long getCompressedBytes()
+    {
+        return compressedBytes;
+    }
+
+    /**
+     * number of bytes stored as literals
+     * @return long literal count
+     */
+    public long getLiteralCount()
+    {
+        return literals;
+    }
+
+    /**
+     * number of predictions that matched at least one byte
+     * @return long match count
+     */
+    public long getMatchCount()
+    {
+        return matches;
+    }
+
+    /**
+     * number of bytes covered by matches
+     * @return long bytes
+     */
+    public long getMatchedBytes()
+    {
+        return uncompressedBytes - literals;
+    }
+
+    /**
+     * number of context table lookups
+     * @return long lookups
+     */
+    public long getLookups()
+    {
+        return lookups;
+    }
+
+    /**
+     * number of lookups that found an earlier position
+     * @return long hits
+     */
+    public long getContextHits()
+    {
+        return hits;
+    }
+
+    /**
+     * fraction of lookups that found an earlier position
+     * @return double 0 to 1
+     */
+    public double getContextHitRate()
+    {
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * counts of match lengths in power of two buckets
+     * @return copy of array size HISTOGRAM_BUCKETS
+     */
+    public long[] getMatchLengthHistogram()
+    {
+        return Arrays.copyOf(matchLengths, HISTOGRAM_BUCKETS);
+    }
+
+    /**
+     * length of stored literal Huffman trees
+     * @return long bytes
+     */
+    public long getLiteralTreeBytes()
+    {
+        return literalTreeBytes;
+    }
+
+    /**
+     * length of encoded literals
+     * @return long bytes
+     */
+    public long getLiteralStreamBytes()
+    {
+        return literalStreamBytes;
+    }
+
+    /**
+     * length of stored match length Huffman trees
+     * @return long bytes
+     */
+    public long getMatchTreeBytes()
+    {
+        return matchTreeBytes;
+    }
+
+    /**
+     * length of encoded match lengths
+     * @return long bytes
+     */
+    public long getMatchStreamBytes()
+    {
+        return matchStreamBytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("blocks=").append(blocks)
+          .append(" in=").append(uncompressedBytes)
+          .append(" out=").append(compressedBytes)
+          .append(" literals=").append(literals)
+          .append(" matches=").append(matches)
+          .append(" hitRate=").append(String.format("%.3f", getContextHitRate()));
+        for (Phase phase : Phase.values())
+        {
+            if (nanos[phase.ordinal()] > 0)
+            {
+                sb.append(' ').append(phase).append('=').append(nanos[phase.ordinal()]).append("ns");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.lzip;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import lznp.util.LZNFFile;
+import lznp.util.Utils;
+
+/**
+ * CompressorContext class
+ * buffers, Huffman blocks, context table and the Compress itself kept
+ * between blocks, so compressing many small payloads does not allocate
+ * and clear them each time. The context table is reset in O(1) and the
+ * buffers grow to the largest block seen. Not thread-safe: give each thread its own context,
+ * through a ThreadLocal or a pool.
+ * Payloads can be compressed into a caller's array or buffer sized with
+ * compressBound(), heap buffers are read and written in place and direct
+ * buffers through arrays kept by the context
+ * @author /u/Philboyd_Studge
+ */
+public class CompressorContext
+{
+    private final ContextTable table;
+    private final CRC32 crc = new CRC32();
+    private boolean interleave = true;
+    private boolean analyze = true;
+    private BlockAnalyzer analyzer;
+    private Compress compressor;
+    private final CompressedBlock literals = new CompressedBlock();
+    private final CompressedBlock matches = new CompressedBlock();
+    private byte[] literalBuffer = new byte[0];
+    private byte[] matchBuffer = new byte[0];
+    private byte[] inputBuffer = new byte[0];
+    private byte[] outputBuffer = new byte[0];
+
+    /**
+     * Creates a context with a table of 2^DEFAULT_BITS slots
+     */
+    public CompressorContext()
+    {
+        this(ContextTable.DEFAULT_BITS);
+    }
+
+    /**
+     * Creates a context with a table of 2^contextBits slots
+     * @param contextBits number of context table hash bits
+     */
+    public CompressorContext(int contextBits)
+    {
+        table = new ContextTable(contextBits);
+    }
+
+    /**
+     * set whether the literal and match streams of blocks with at least
+     * CompressedBlock.MIN_INTERLEAVED_SYMBOLS literals are split into
+     * interleaved sub-streams, which decode faster
+     * @param interleave true to interleave long streams, the default
+     */
+    public void setInterleave(boolean interleave)
+    {
+        this.interleave = interleave;
+    }
+
+    /**
+     * test if long streams are interleaved
+     * @return true if interleaving, the default
+     */
+    public boolean isInterleave()
+    {
+        return interleave;
+    }
+
+    /**
+     * set whether blocks of at least LZNF.MIN_BLOCK_SIZE are sampled to choose
+     * their BlockMode, so ones that LZP would not help are entropy coded or
+     * stored without the LZP pass. Otherwise every block is LZP, and stored
+     * if that does not shrink it
+     * @param analyze true to sample blocks, the default
+     */
+    public void setAnalyze(boolean analyze)
+    {
+        this.analyze = analyze;
+    }
+
+    /**
+     * test if blocks are sampled to choose their BlockMode
+     * @return true if analyzing, the default
+     */
+    public boolean isAnalyze()
+    {
+        return analyze;
+    }
+
+    /**
+     * get number of context table hash bits
+     * @return integer bits
+     */
+    public int getContextBits()
+    {
+        return table.getBits();
+    }
+
+    /**
+     * largest packed block a payload can compress to. A block that
+     * does not shrink is stored, so this is the payload and the block header
+     * @param length payload length, 0 to LZNF.MAX_BLOCK_SIZE
+     * @return integer bytes
+     */
+    public static int compressBound(int length)
+    {
+        checkLength(length);
+        if (length == 0) return 4;
+        return LZNFFile.BLOCK_HEADER + length;
+    }
+
+    /**
+     * compress a payload into a packed block, read back with
+     * a DecompressorContext of the same context bits
+     * @param bank byte array to compress, at most LZNF.MAX_BLOCK_SIZE
+     * @return byte array of block length, checksum, literal block and match block
+     */
+    public byte[] compress(byte[] bank)
+    {
+        checkLength(bank.length);
+        // a zero length is the end of blocks marker on its own
+        if (bank.length == 0) return new byte[4];
+        Compress zip = encode(bank, 0, bank.length);
+        byte[] packed = new byte[LZNFFile.getPackedLength(zip)];
+        LZNFFile.packBlock(bank.length, checksum(bank, 0, bank.length), zip, packed, 0);
+        return packed;
+    }
+
+    /**
+     * compress part of an array into a packed block in part of another
+     * @param src byte array holding the payload
+     * @param srcOffset start of the payload
+     * @param srcLength length of the payload, at most LZNF.MAX_BLOCK_SIZE
+     * @param dst byte array to pack to, compressBound(srcLength) bytes
+     * from dstOffset are always enough
+     * @param dstOffset position to pack to
+     * @return integer length of the packed block
+     * @throws IllegalArgumentException if the packed block does not fit in dst,
+     * dst is not written then
+     */
+    public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset)
+    {
+        checkLength(srcLength);
+        if (dstOffset < 0 || dstOffset > dst.length)
+        {
+            throw new IndexOutOfBoundsException("Offset " + dstOffset + " outside array of " + dst.length);
+        }
+        return compress(src, srcOffset, srcLength, dst, dstOffset, dst.length - dstOffset);
+    }
+
+    /**
+     * compress part of an array into at most room bytes of another
+     * @param src byte array holding the payload
+     * @param srcOffset start of the payload
+     * @param srcLength length of the payload
+     * @param dst byte array to pack to
+     * @param dstOffset position to pack to
+     * @param room number of bytes of dst from dstOffset that may be written
+     * @return integer length of the packed block
+     * @throws IllegalArgumentException if the packed block is longer than room,
+     * dst is not written then
+     */
+    private int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int room)
+    {
+        if (srcLength == 0)
+        {
+            checkRoom(4, room);
+            Utils.intToByte(0, dst, dstOffset);
+            return 4;
+        }
+        Compress zip = encode(src, srcOffset, srcLength);
+        checkRoom(LZNFFile.getPackedLength(zip), room);
+        return LZNFFile.packBlock(srcLength, checksum(src, srcOffset, srcLength), zip, dst, dstOffset) - dstOffset;
+    }
+
+    /**
+     * compress the remaining bytes of src into a packed block at the position
+     * of dst. Both positions are moved past the bytes used, and are left
+     * alone if the block does not fit
+     * @param src payload, heap or direct
+     * @param dst buffer to pack to, heap or direct
+     * @return integer length of the packed block
+     * @throws IllegalArgumentException if the packed block does not fit in dst
+     */
+    public int compress(ByteBuffer src, ByteBuffer dst)
+    {
+        int length = src.remaining();
+        checkLength(length);
+        byte[] in;
+        int inOffset;
+        if (src.hasArray())
+        {
+            in = src.array();
+            inOffset = src.arrayOffset() + src.position();
+        }
+        else
+        {
+            in = inputBuffer = grow(inputBuffer, length);
+            inOffset = 0;
+            int position = src.position();
+            src.get(in, 0, length);
+            src.position(position);
+        }
+
+        int packed;
+        if (dst.hasArray() && !dst.isReadOnly())
+        {
+            // only the bytes up to the limit of dst may be written
+            packed = compress(in, inOffset, length, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            dst.position(dst.position() + packed);
+        }
+        else
+        {
+            outputBuffer = grow(outputBuffer, compressBound(length));
+            packed = compress(in, inOffset, length, outputBuffer, 0);
+            checkRoom(packed, dst.remaining());
+            dst.put(outputBuffer, 0, packed);
+        }
+        src.position(src.position() + length);
+        return packed;
+    }
+
+    private Compress encode(byte[] src, int srcOffset, int srcLength)
+    {
+        Compress zip = compressor(src, srcOffset, srcLength);
+        zip.compress();
+        return zip;
+    }
+
+    /**
+     * the Compress kept by the context, taking another block
+     * @param src byte array holding the block
+     * @param srcOffset start of the block
+     * @param srcLength length of the block
+     * @return Compress of the block, valid until the context compresses another
+     */
+    Compress compressor(byte[] src, int srcOffset, int srcLength)
+    {
+        if (compressor == null) compressor = new Compress(src, srcOffset, srcLength, this);
+        else compressor.reset(src, srcOffset, srcLength);
+        return compressor;
+    }
+
+    private int checksum(byte[] src, int srcOffset, int srcLength)
+    {
+        crc.reset();
+        crc.update(src, srcOffset, srcLength);
+        return (int) crc.getValue();
+    }
+
+    private static void checkLength(int length)
+    {
+        if (length < 0 || length > LZNF.MAX_BLOCK_SIZE)
+        {
+            throw new IllegalArgumentException("Payload length must be between 0 and "
+                    + LZNF.MAX_BLOCK_SIZE + ": " + length);
+        }
+    }
+
+    private static void checkRoom(int needed, int remaining)
+    {
+        if (needed > remaining)
+        {
+            throw new IllegalArgumentException("Destination too small, " + needed
+                    + " bytes needed and " + remaining + " remaining");
+        }
+    }
+
+    private static byte[] grow(byte[] buffer, int length)
+    {
+        return buffer.length < length ? new byte[length] : buffer;
+    }
+
+    BlockAnalyzer analyzer()
+    {
+        if (analyzer == null) analyzer = new BlockAnalyzer(table.getBits());
+        return analyzer;
+    }
+
+    ContextTable table(int length)
+    {
+        table.reset(length);
+        return table;
+    }
+
+    CompressedBlock literals()
+    {
+        literals.reset();
+        return literals;
+    }
+
+    CompressedBlock matches()
+    {
+        matches.reset();
+        return matches;
+    }
+
+    byte[] literalBuffer(int length)
+    {
+        literalBuffer = grow(literalBuffer, length);
+        return literalBuffer;
+    }
+
+    byte[] matchBuffer(int length)
+    {
+        matchBuffer = grow(matchBuffer, length);
+        return matchBuffer;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.lzip;
+
+import java.util.Arrays;
+
+/**
+ * ContextTable class
+ * int[] backed table mapping a hashed 4-byte context to the last
+ * position it was seen at. Used by both Compress and Decompress, so
+ * both sides see the same (possibly colliding) predictions.
+ * Positions are stored offset by a base, so reset() can forget every
+ * entry in O(1) by moving the base past them. The table is only
+ * cleared when the base would overflow.
+ * @author /u/Philboyd_Studge
+ */
+public class ContextTable
+{
+    public static final int DEFAULT_BITS = 16;
+    public static final int MIN_BITS = 8;
+    public static final int MAX_BITS = 24;
+
+    // golden ratio multiplier for hashing the context
+    private static final int HASH_MULTIPLIER = 0x9E3779B1;
+
+    // positions since the last reset are not bounded
+    private static final int UNBOUNDED = -1;
+
+    private final int[] table;
+    private final int bits;
+    private final int shift;
+
+    // stored entries above base belong to the current generation,
+    // which holds positions below span
+    private int base;
+    private int span = UNBOUNDED;
+
+    /**
+     * Creates a table of 2^DEFAULT_BITS slots
+     */
+    public ContextTable()
+    {
+        this(DEFAULT_BITS);
+    }
+
+    /**
+     * Creates a table of 2^bits slots
+     * @param bits number of hash bits, MIN_BITS to MAX_BITS
+     */
+    public ContextTable(int bits)
+    {
+        if (bits < MIN_BITS || bits > MAX_BITS)
+        {
+            throw new IllegalArgumentException("Context table bits must be between "
+                    + MIN_BITS + " and " + MAX_BITS + ": " + bits);
+        }
+        this.bits = bits;
+        this.shift = 32 - bits;
+        this.table = new int[1 << bits];
+    }
+
+    /**
+     * number of hash bits
+     * @return integer bits
+     */
+    public int getBits()
+    {
+        return bits;
+    }
+
+    /**
+     * number of slots in the table
+     * @return integer size
+     */
+    public int size()
+    {
+        return table.length;
+    }
+
+    /**
+     * hash a 4-byte context to a slot index
+     * @param context 4 bytes packed big-endian in an int
+     * @return slot index
+     */
+    private int index(int context)
+    {
+        return (context * HASH_MULTIPLIER) >>> shift;
+    }
+
+    /**
+     * get last position stored for this context, 0 if none
+     * @param context 4 bytes packed big-endian in an int
+     * @return integer position
+     */
+    public int get(int context)
+    {
+        int last = table[index(context)];
+        return last > base ? last - base : 0;
+    }
+
+    /**
+     * store position for context, returning the previous one
+     * @param context 4 bytes packed big-endian in an int
+     * @param position current position
+     * @return previous position for the context, 0 if none
+     */
+    public int getAndSet(int context, int position)
+    {
+        int i = index(context);
+        int last = table[i];
+        table[i] = base + position;
+        return last > base ? last - base : 0;
+    }
+
+    /**
+     * remove all positions from the table
+     */
+    public void clear()
+    {
+        Arrays.fill(table, 0);
+        base = 0;
+        span = UNBOUNDED;
+    }
+
+    /**
+     * remove all positions from the table in O(1), by starting a new
+     * generation above every stored entry
+     * @param length positions stored until the next reset are below length
+     */
+    public void reset(int length)
+    {
+        if (length < 0) throw new IllegalArgumentException("Length must not be negative: " + length);
+        if (span == UNBOUNDED || base > Integer.MAX_VALUE - span - length)
+        {
+            clear();
+        }
+        else
+        {
+            base += span;
+        }
+        span = length;
+    }
+}
@@ -14,152 +14,433 @@
  */
 package lznp.lzip;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.zip.CRC32;
+import lznp.entropy.EntropyCoder;
+import lznp.entropy.EntropyDecoder;
+import lznp.event.DecompressEvent;
+import lznp.event.Events;
 import lznp.exception.InvalidChecksumException;
-import lznp.huffman.HuffmanTree;
+import lznp.exception.NotValidFileException;
 import lznp.util.BitStream;
-import lznp.util.FileIO;
 import lznp.util.LZNFFile;
 import lznp.util.Utils;
 
 /**
  * Decompress class
+ * decodes the current block of an LZNFFile
  * @author /u/Philboyd_Studge
  */
 public class Decompress
 {
-    private final BitStream treeStream;
-    private final BitStream bitStream;
-    private final int origCRC32;
-    private final int origSize;
-    private byte[] inStream;
+    private BitStream treeStream;
+    private BitStream bitStream;
+    private BitStream matchTreeStream;
+    private BitStream matchBitStream;
+    private int origCRC32;
+    private int origSize;
+    private int blockId;
+    private int version;
+    private BlockMode mode;
+    private ByteBuffer stored;
     private byte[] outStream;
+    private int outOffset;
+    private ByteBuffer target;
     
-    private HashMap<Integer, Integer> hashTable;
+    private ContextTable hashTable;
+    private final DecompressorContext context;
+    private final CompressionStats stats = new CompressionStats();
+    private final PhaseTimer timer = new PhaseTimer(stats, -1);
+    private final long[] matchLengths = new long[CompressionStats.HISTOGRAM_BUCKETS];
+    private final CRC32 crc = new CRC32();
     
     public Decompress(LZNFFile inFile)
+    {
+        this(inFile, new DecompressorContext(inFile.getHeader().getContextBits()));
+    }
+
+    /**
+     * Constructor, decodes the current block with the
+     * context table of a context
+     * @param inFile LZNFFile positioned at a block
+     * @param context DecompressorContext to reuse
+     */
+    public Decompress(LZNFFile inFile, DecompressorContext context)
+    {
+        this(inFile, context, null, 0);
+    }
+
+    /**
+     * Constructor, decodes the current block into part of an array
+     * @param inFile LZNFFile positioned at a block
+     * @param context DecompressorContext to reuse
+     * @param out byte array with the block length free at outOffset,
+     * null to allocate one
+     * @param outOffset position of the first decoded byte in out
+     */
+    Decompress(LZNFFile inFile, DecompressorContext context, byte[] out, int outOffset)
+    {
+        this.context = context;
+        reset(inFile, out, outOffset);
+    }
+
+    /**
+     * take the current block of another file, keeping the arrays and stats
+     * of this Decompress, so a context decoding many blocks does not
+     * allocate them each time. The stats returned by the last decompress()
+     * are cleared
+     * @param inFile LZNFFile positioned at a block
+     * @param out byte array with the block length free at outOffset,
+     * null to allocate one
+     * @param outOffset position of the first decoded byte in out
+     * @return this Decompress
+     */
+    Decompress reset(LZNFFile inFile, byte[] out, int outOffset)
     {
         treeStream = inFile.getTreeStream();
-        bitStream = inFile.getBitStream();       
-        inStream = new byte[inFile.getHeader().getFileLength() * 2];  
-        origCRC32 = inFile.getHeader().getCRC32();
-        origSize = inFile.getHeader().getFileLength();
-        hashTable = new HashMap<>();
+        bitStream = inFile.getBitStream();
+        matchTreeStream = inFile.getMatchTreeStream();
+        matchBitStream = inFile.getMatchStream();
+        origCRC32 = inFile.getBlockCRC32();
+        origSize = inFile.getBlockLength();
+        blockId = inFile.getBlockNumber();
+        timer.setBlockId(blockId);
+        version = inFile.getHeader().getVersion();
+        mode = inFile.getMode();
+        stored = inFile.getStoredBlock();
+        outStream = out;
+        this.outOffset = outOffset;
+        // positions in the table are indexes of outStream
+        hashTable = context.table(inFile.getHeader().getContextBits(), outOffset + origSize);
+        stats.reset();
+        return this;
     }
 
     /**
-     * get output byte array
+     * get output byte array, the array passed in if decoding into one
      * @return byte array of output stream
      */
     public byte[] getOutstream() { return outStream; }
 
     /**
-     * decompress file
+     * get timings and counts of decompress()
+     * @return CompressionStats
+     */
+    public CompressionStats getStats() { return stats; }
+
+    /**
+     * decompress block to the position of a buffer, such as a view of a
+     * mapped output file, moving the position past the block. A STORED
+     * block is put straight in the buffer and checked there, other blocks
+     * are decoded to the output array first
+     * @param out buffer with at least the block length remaining
+     * @return CompressionStats of this block
+     * @throws NotValidFileException if the block does not fit in out
+     */
+    CompressionStats decompressTo(ByteBuffer out)
+    {
+        if (origSize > out.remaining()) throw new NotValidFileException("Not a valid LZNF File.");
+        if (mode != BlockMode.STORED)
+        {
+            decompress();
+            out.put(outStream, outOffset, origSize);
+            return stats;
+        }
+        target = out;
+        try
+        {
+            return decompress();
+        }
+        finally
+        {
+            target = null;
+        }
+    }
+
+    /**
+     * decompress block, counting it in CodecMetrics
+     * and recording a DecompressEvent
+     * @return CompressionStats of this block
      */
-    public void decompress()
+    public CompressionStats decompress()
     {
-        decodeHuffman();
-        decode();
-        checkCRC32();
+        DecompressEvent event = Events.beginDecompress();
+        long begin = System.nanoTime();
+        try
+        {
+            try
+            {
+                if (mode == BlockMode.STORED) copyStored(timer);
+                else if (mode == BlockMode.ENTROPY) decodeLiterals(timer);
+                else decodeStreams(timer);
+            }
+            catch (ArrayIndexOutOfBoundsException e)
+            {
+                // corrupted streams decode to matches from outside the block
+                throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
+            }
+            timer.start(CompressionStats.Phase.CRC);
+            checkCRC32();
+            timer.stop(origSize);
+        }
+        catch (RuntimeException e)
+        {
+            CodecMetrics.getInstance().decompressFailed(e);
+            throw e;
+        }
+        CodecMetrics.getInstance().recordDecompress(stats.getCompressedBytes(), origSize, System.nanoTime() - begin);
+        if (event != null) commit(event);
+        return stats;
     }
 
     /**
-     * decode LZNF data
+     * commit a DecompressEvent if it is over its threshold
+     * @param event DecompressEvent begun by decompress()
      */
-    private void decode()
+    private void commit(DecompressEvent event)
     {
-        outStream = new byte[origSize];
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.blockId = blockId;
+            event.uncompressedBytes = origSize;
+            event.compressedBytes = stats.getCompressedBytes();
+            event.commit();
+        }
+    }
+
+    /**
+     * coder id of a stream, version 1 files have no coder id and are all Huffman
+     * @param table BitStream of the stored table
+     * @return integer EntropyCoder id
+     */
+    private int coderId(BitStream table)
+    {
+        return version == 1 ? EntropyCoder.HUFFMAN : table.readBits(8);
+    }
+
+    /**
+     * decode LZNF data, reading each literal and match length from
+     * its entropy coded stream as the LZP loop needs it. Codes read past the
+     * end of a corrupted stream decode zero bits and fail the CRC check
+     * @param literals EntropyDecoder of the literal stream
+     * @param matches EntropyDecoder of the match length stream
+     */
+    private void decode(EntropyDecoder literals, EntropyDecoder matches)
+    {
+        final BitStream literalBits = bitStream;
+        final BitStream matchBits = matchBitStream;
+        if (outStream == null) outStream = new byte[origSize];
+        final int end = outOffset + origSize;
         
         int matchLen;
         int current = 0;
-        int outPointer = 0;
+        int outPointer = outOffset;
         int pointer;
+        final long[] matchLengths = this.matchLengths;
+        Arrays.fill(matchLengths, 0);
+        int lookups = 0;
+        int hits = 0;
         
-        for (int i = 0; i < 3; i++)
+        for (int i = 0; i < Math.min(4, origSize); i++)
         {
-            outStream[i] = inStream[i];
+            outStream[outPointer] = (byte) literals.decode(literalBits);
             current++;
             outPointer++;
         }
         
-        while (current < inStream.length)
+        while (outPointer < end)
         {
-            byte[] contextBytes = { outStream[outPointer - 3], outStream[outPointer - 2], outStream[outPointer - 1] };
-            int context = Utils.byteToInt(contextBytes);
-            if (hashTable.containsKey(context))
-            {
-                pointer = hashTable.get(context);
-            }
-            else
+            int context = Utils.byteToInt(outStream, outPointer - 4);
+            pointer = hashTable.getAndSet(context, outPointer);
+            lookups++;
+            
+            if (pointer > 0)
             {
-                pointer = 0;
+                hits++;
+                matchLen = 0;
+                int nextLen;
+                do
+                {
+                    nextLen = matches.decode(matchBits);
+                    matchLen += nextLen;
+                    // a corrupted stream can read 255s forever, and the
+                    // caller's bytes past the block are not ours to overwrite
+                    if (matchLen > end - outPointer) throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
+                } while (nextLen == 255);
+                matchLengths[CompressionStats.bucket(matchLen)]++;
+                
+                Utils.copyMatch(outStream, pointer, outPointer, matchLen);
+                outPointer += matchLen;
+                if (outPointer >= end) break;
             }
-            hashTable.put(context, outPointer);
+            outStream[outPointer] = (byte) literals.decode(literalBits);
+            outPointer++;
+            current++;
+        }
+        stats.setBlock(origSize, current, lookups, hits, matchLengths);
+    }
+
+    /**
+     * decode LZNF data from whole decoded interleaved streams. Symbols
+     * past those decoded are left from an earlier block, and like the
+     * zero bits read past the end of a stream fail the CRC check
+     * @param literals byte array of literals
+     * @param matches byte array of match lengths
+     */
+    private void decode(byte[] literals, byte[] matches)
+    {
+        if (outStream == null) outStream = new byte[origSize];
+        final int end = outOffset + origSize;
+        
+        int matchLen;
+        int current = 0;
+        int matchPointer = 0;
+        int outPointer = outOffset;
+        int pointer;
+        final long[] matchLengths = this.matchLengths;
+        Arrays.fill(matchLengths, 0);
+        int lookups = 0;
+        int hits = 0;
+        
+        for (int i = 0; i < Math.min(4, origSize); i++)
+        {
+            outStream[outPointer] = literals[current];
+            current++;
+            outPointer++;
+        }
+        
+        while (outPointer < end)
+        {
+            int context = Utils.byteToInt(outStream, outPointer - 4);
+            pointer = hashTable.getAndSet(context, outPointer);
+            lookups++;
             
             if (pointer > 0)
             {
-                matchLen = (int) (inStream[current] & 0xff);
-               if (matchLen == 255)
+                hits++;
+                matchLen = 0;
+                int nextLen;
+                do
                 {
-                    int lenCount = 1;
-                    int nextLen = matchLen;
-                    while (nextLen == 255)
-                    {
-                        nextLen = (int) inStream[current + lenCount] & 0xff;
-                        matchLen += nextLen;
-                        lenCount++;
-                    }
-                    current += lenCount - 1;
-                }
+                    nextLen = matches[matchPointer++] & 0xff;
+                    matchLen += nextLen;
+                    if (matchLen > end - outPointer) throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
+                } while (nextLen == 255);
+                matchLengths[CompressionStats.bucket(matchLen)]++;
                 
-                while (matchLen > 0)
-                {
-                    outStream[outPointer] = outStream[pointer];
-                    pointer++;
-                    outPointer++;
-                    matchLen--;
-                }
-                current++;
-                if (current > inStream.length - 1) { System.out.println("op " + outPointer); break; }
-                outStream[outPointer] = inStream[current];
-                outPointer++;
-                current++;
+                Utils.copyMatch(outStream, pointer, outPointer, matchLen);
+                outPointer += matchLen;
+                if (outPointer >= end) break;
             }
-            else
+            outStream[outPointer] = literals[current];
+            outPointer++;
+            current++;
+        }
+        stats.setBlock(origSize, current, lookups, hits, matchLengths);
+    }
+
+    /**
+     * decode the entropy coded streams of an LZP block, then the block
+     * @param timer PhaseTimer of decompress()
+     */
+    private void decodeStreams(PhaseTimer timer)
+    {
+        stats.setStreams(treeStream.length(), bitStream.length(), matchTreeStream.length(), matchBitStream.length());
+        timer.start(CompressionStats.Phase.HUFFMAN_DECODE);
+        int literalId = coderId(treeStream);
+        int matchId = coderId(matchTreeStream);
+        if ((literalId & EntropyCoder.INTERLEAVED) != 0)
+        {
+            // neither stream holds more symbols than the block has bytes
+            byte[] literals = context.literalBuffer(origSize + 1);
+            byte[] matches = context.matchBuffer(origSize + 1);
+            EntropyCoder.decode(literalId, treeStream, bitStream, literals, context.literalTables());
+            EntropyCoder.decode(matchId, matchTreeStream, matchBitStream, matches, context.matchTables());
+            timer.next(stats.getCompressedBytes(), CompressionStats.Phase.LZP_DECODE);
+            decode(literals, matches);
+        }
+        else
+        {
+            EntropyDecoder literals = EntropyCoder.decoder(literalId, treeStream, bitStream, context.literalTables());
+            EntropyDecoder matches = EntropyCoder.decoder(matchId, matchTreeStream, matchBitStream, context.matchTables());
+            timer.next(treeStream.length() + matchTreeStream.length(), CompressionStats.Phase.LZP_DECODE);
+            decode(literals, matches);
+        }
+        timer.stop(origSize);
+    }
+
+    /**
+     * decode an ENTROPY block, the literals are the block itself
+     * @param timer PhaseTimer of decompress()
+     */
+    private void decodeLiterals(PhaseTimer timer)
+    {
+        stats.setStreams(treeStream.length(), bitStream.length(), 0, 0);
+        timer.start(CompressionStats.Phase.HUFFMAN_DECODE);
+        if (outStream == null) outStream = new byte[origSize];
+        int literalId = coderId(treeStream);
+        if ((literalId & EntropyCoder.INTERLEAVED) != 0)
+        {
+            byte[] literals = context.literalBuffer(origSize);
+            if (EntropyCoder.decode(literalId, treeStream, bitStream, literals, context.literalTables()) != origSize)
+            {
+                throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
+            }
+            System.arraycopy(literals, 0, outStream, outOffset, origSize);
+        }
+        else
+        {
+            final BitStream literalBits = bitStream;
+            EntropyDecoder literals = EntropyCoder.decoder(literalId, treeStream, literalBits, context.literalTables());
+            for (int i = outOffset; i < outOffset + origSize; i++)
             {
-                outStream[outPointer] = inStream[current];
-                outPointer++;
-                current++;                            
+                outStream[i] = (byte) literals.decode(literalBits);
             }
         }
-        outStream = Arrays.copyOfRange(outStream, 0, outPointer);
-        //FileIO.bufferToFile(outStream, "tmp.txt");
+        stats.setBlock(origSize);
+        timer.stop(origSize);
     }
 
     /**
-     * rebuild Huffman tree and decode BitStream
+     * copy a STORED block, the bytes are the block itself,
+     * to the target buffer of decompressTo() if there is one
+     * @param timer PhaseTimer of decompress()
      */
-    private void decodeHuffman()
+    private void copyStored(PhaseTimer timer)
     {
-        HuffmanTree ht = new HuffmanTree(treeStream);
-        int current = 0;
-        while (!bitStream.EOB())
+        stats.setStreams(0, origSize, 0, 0);
+        timer.start(CompressionStats.Phase.LZP_DECODE);
+        if (target != null)
         {
-            inStream[current] = (byte) (ht.getCode(bitStream) & 0xff);
-            current++;
+            target.put(stored.duplicate());
         }
-        
-        //trim
-        inStream = Arrays.copyOf(inStream, current);
-        //System.out.println("instream length " + inStream.length);
-        //System.out.println(Utils.bankToString(inStream));
-        
-   }
-    
+        else
+        {
+            if (outStream == null) outStream = new byte[origSize];
+            stored.duplicate().get(outStream, outOffset, origSize);
+        }
+        stats.setBlock(origSize);
+        timer.stop(origSize);
+    }
+
    private void checkCRC32()
    {
-       int newCRC = (int) (FileIO.getCRC32(outStream) &0xffffffff);
+       crc.reset();
+       if (target != null)
+       {
+           // the block just put, ending at the position of the target
+           ByteBuffer block = target.duplicate();
+           block.limit(target.position());
+           block.position(target.position() - origSize);
+           crc.update(block);
+       }
+       else
+       {
+           crc.update(outStream, outOffset, origSize);
+       }
+       int newCRC = (int) crc.getValue();
        if (origCRC32 != newCRC) throw new InvalidChecksumException("Error in decompressing file or corrupted file.");
    }
 }
@@ -0,0 +1,282 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.lzip;
+
+import java.nio.ByteBuffer;
+import lznp.entropy.DecoderTables;
+import lznp.exception.NotValidFileException;
+import lznp.util.FileHeader;
+import lznp.util.LZNFFile;
+import lznp.util.Utils;
+
+/**
+ * DecompressorContext class
+ * context table, symbol buffers and decode tables kept between blocks, the
+ * counterpart of CompressorContext. The context table is reset in O(1),
+ * and replaced only when a block uses different context bits.
+ * Not thread-safe: give each thread its own context,
+ * through a ThreadLocal or a pool.
+ * Blocks can be decompressed into a caller's array or buffer sized with
+ * decompressedLength(), heap buffers are read and written in place and
+ * direct buffers through arrays kept by the context
+ * @author /u/Philboyd_Studge
+ */
+public class DecompressorContext
+{
+    private final FileHeader header;
+    private ContextTable table;
+    private byte[] inputBuffer = new byte[0];
+    private byte[] outputBuffer = new byte[0];
+    private byte[] literalBuffer = new byte[0];
+    private byte[] matchBuffer = new byte[0];
+    private final DecoderTables literalTables = new DecoderTables();
+    private final DecoderTables matchTables = new DecoderTables();
+    private Decompress decompressor;
+
+    /**
+     * Creates a context with a table of 2^DEFAULT_BITS slots
+     */
+    public DecompressorContext()
+    {
+        this(ContextTable.DEFAULT_BITS);
+    }
+
+    /**
+     * Creates a context with a table of 2^contextBits slots
+     * @param contextBits number of context table hash bits
+     */
+    public DecompressorContext(int contextBits)
+    {
+        table = new ContextTable(contextBits);
+        header = new FileHeader("", 0, 0, contextBits);
+    }
+
+    /**
+     * get number of context table hash bits
+     * @return integer bits
+     */
+    public int getContextBits()
+    {
+        return header.getContextBits();
+    }
+
+    /**
+     * original length of a packed block, read from its first 4 bytes
+     * @param src byte array holding the packed block
+     * @param srcOffset start of the packed block
+     * @return integer length
+     * @throws NotValidFileException if the length is negative
+     */
+    public static int decompressedLength(byte[] src, int srcOffset) throws NotValidFileException
+    {
+        int length = Utils.byteToInt(src, srcOffset);
+        if (length < 0) throw new NotValidFileException("Not a valid LZNF File.");
+        return length;
+    }
+
+    /**
+     * decompress a packed block from CompressorContext.compress
+     * @param packed byte array of packed block
+     * @return byte array of original payload
+     * @throws NotValidFileException if the block is truncated or malformed
+     */
+    public byte[] decompress(byte[] packed) throws NotValidFileException
+    {
+        LZNFFile block = readBlock(packed, 0, packed.length);
+        if (block.getBlockLength() == 0) return new byte[0];
+        Decompress unzip = decompressor(block, null, 0);
+        unzip.decompress();
+        return unzip.getOutstream();
+    }
+
+    /**
+     * decompress a packed block in part of an array into part of another
+     * @param src byte array holding the packed block
+     * @param srcOffset start of the packed block
+     * @param srcLength length of the packed block
+     * @param dst byte array to decompress to, decompressedLength() bytes
+     * from dstOffset are enough
+     * @param dstOffset position of the first decompressed byte
+     * @return integer length of the original payload
+     * @throws NotValidFileException if the block is truncated or malformed
+     * @throws IllegalArgumentException if the payload does not fit in dst,
+     * dst is not written then
+     */
+    public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) throws NotValidFileException
+    {
+        if (dstOffset < 0 || dstOffset > dst.length)
+        {
+            throw new IndexOutOfBoundsException("Offset " + dstOffset + " outside array of " + dst.length);
+        }
+        return decompress(src, srcOffset, srcLength, dst, dstOffset, dst.length - dstOffset);
+    }
+
+    /**
+     * decompress a packed block in part of an array into at most room bytes of another
+     * @param src byte array holding the packed block
+     * @param srcOffset start of the packed block
+     * @param srcLength length of the packed block
+     * @param dst byte array to decompress to
+     * @param dstOffset position of the first decompressed byte
+     * @param room number of bytes of dst from dstOffset that may be written
+     * @return integer length of the original payload
+     * @throws NotValidFileException if the block is truncated or malformed
+     * @throws IllegalArgumentException if the payload is longer than room,
+     * dst is not written then
+     */
+    private int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int room) throws NotValidFileException
+    {
+        LZNFFile block = readBlock(src, srcOffset, srcLength);
+        int length = block.getBlockLength();
+        if (length == 0) return 0;
+        checkRoom(length, room);
+        decompressor(block, dst, dstOffset).decompress();
+        return length;
+    }
+
+    /**
+     * decompress the packed block in the remaining bytes of src to the
+     * position of dst. Both positions are moved past the bytes used,
+     * and are left alone if the block is invalid or does not fit
+     * @param src packed block, heap or direct
+     * @param dst buffer to decompress to, heap or direct
+     * @return integer length of the original payload
+     * @throws NotValidFileException if the block is truncated or malformed
+     * @throws IllegalArgumentException if the payload does not fit in dst
+     */
+    public int decompress(ByteBuffer src, ByteBuffer dst) throws NotValidFileException
+    {
+        int srcLength = src.remaining();
+        byte[] in;
+        int inOffset;
+        if (src.hasArray())
+        {
+            in = src.array();
+            inOffset = src.arrayOffset() + src.position();
+        }
+        else
+        {
+            in = inputBuffer = grow(inputBuffer, srcLength);
+            inOffset = 0;
+            int position = src.position();
+            src.get(in, 0, srcLength);
+            src.position(position);
+        }
+
+        int length;
+        if (dst.hasArray() && !dst.isReadOnly())
+        {
+            // only the bytes up to the limit of dst may be written
+            length = decompress(in, inOffset, srcLength, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            dst.position(dst.position() + length);
+        }
+        else
+        {
+            if (srcLength >= 4) checkRoom(decompressedLength(in, inOffset), dst.remaining());
+            LZNFFile block = readBlock(in, inOffset, srcLength);
+            length = block.getBlockLength();
+            outputBuffer = grow(outputBuffer, length);
+            if (length > 0) decompressor(block, outputBuffer, 0).decompress();
+            dst.put(outputBuffer, 0, length);
+        }
+        src.position(src.position() + srcLength);
+        return length;
+    }
+
+    /**
+     * read a packed block, counting a malformed one in CodecMetrics.
+     * Payloads are no longer than LZNF.MAX_BLOCK_SIZE, so a longer
+     * block is corrupt and is not given buffers
+     */
+    private LZNFFile readBlock(byte[] src, int srcOffset, int srcLength)
+    {
+        try
+        {
+            LZNFFile block = LZNFFile.readBlock(header, src, srcOffset, srcLength);
+            if (block.getBlockLength() > LZNF.MAX_BLOCK_SIZE) throw new NotValidFileException("Not a valid LZNF File.");
+            return block;
+        }
+        catch (NotValidFileException nvfe)
+        {
+            CodecMetrics.getInstance().decompressFailed(nvfe);
+            throw nvfe;
+        }
+    }
+
+    private static void checkRoom(int needed, int remaining)
+    {
+        if (needed > remaining)
+        {
+            throw new IllegalArgumentException("Destination too small, " + needed
+                    + " bytes needed and " + remaining + " remaining");
+        }
+    }
+
+    private static byte[] grow(byte[] buffer, int length)
+    {
+        return buffer.length < length ? new byte[length] : buffer;
+    }
+
+    /**
+     * the Decompress kept by the context, taking the current block of a file
+     * @param block LZNFFile positioned at a block
+     * @param out byte array with the block length free at outOffset,
+     * null to allocate one
+     * @param outOffset position of the first decoded byte in out
+     * @return Decompress of the block, valid until the context decodes another
+     */
+    Decompress decompressor(LZNFFile block, byte[] out, int outOffset)
+    {
+        if (decompressor == null) decompressor = new Decompress(block, this, out, outOffset);
+        else decompressor.reset(block, out, outOffset);
+        return decompressor;
+    }
+
+    DecoderTables literalTables()
+    {
+        return literalTables;
+    }
+
+    DecoderTables matchTables()
+    {
+        return matchTables;
+    }
+
+    byte[] outputBuffer(int length)
+    {
+        outputBuffer = grow(outputBuffer, length);
+        return outputBuffer;
+    }
+
+    byte[] literalBuffer(int length)
+    {
+        literalBuffer = grow(literalBuffer, length);
+        return literalBuffer;
+    }
+
+    byte[] matchBuffer(int length)
+    {
+        matchBuffer = grow(matchBuffer, length);
+        return matchBuffer;
+    }
+
+    ContextTable table(int contextBits, int length)
+    {
+        if (table.getBits() != contextBits) table = new ContextTable(contextBits);
+        table.reset(length);
+        return table;
+    }
+
+}
@@ -14,22 +14,56 @@
  */
 package lznp.lzip;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import lznp.exception.InvalidChecksumException;
 import lznp.exception.NotValidFileException;
-import lznp.util.Bank;
+import lznp.util.BlockIndex;
+import lznp.util.FileHeader;
 import lznp.util.FileIO;
 import lznp.util.LZNFFile;
 
 /**
  * LZNF main class for LZNF compression/decompression
  * Based of LZP modification idea by Lucas Marsh
+ * Files are memory-mapped and copied out one block at a time, and the blocks
+ * compressed in parallel, so heap use depends on the block size and blocks in
+ * flight, not the file size. The block index at the end of the file lets blocks
+ * be decompressed in parallel, straight into a mapping of the output file
  * @author /u/Philboyd_Studge
  */
 public class LZNF {
     
+    public static final int MIN_BLOCK_SIZE = 1 << 16;
+    public static final int MAX_BLOCK_SIZE = 1 << 26;
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 22;
+    
     String fileName;
     String outFile;
-    Bank inputBank;
-    Bank outputBank;
+    int blockSize;
+    int threads;
+    int maxBlocksInFlight;
+    CompressionStats stats = new CompressionStats();
 
     /**
      * Creates instance for decompression from fileName
@@ -37,10 +71,22 @@ public class LZNF {
      */
     public LZNF(String fileName)
     {
-        this.fileName = fileName;
-        this.inputBank = FileIO.getBankFromFile(fileName);
-        if (this.inputBank == null) throw new NotValidFileException("File not found.");
+        this(fileName, 1);
     } 
+
+    /**
+     * Creates instance for decompression from fileName
+     * decompressing blocks on up to threads threads
+     * @param fileName
+     * @param threads number of threads decompressing blocks
+     */
+    public LZNF(String fileName, int threads)
+    {
+        if (threads < 1) throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+        this.fileName = fileName;
+        this.threads = threads;
+        if (!FileIO.getFile(fileName).isFile()) throw new NotValidFileException("File not found.");
+    }
     
     /**
      * Creates instance for compression from fileName, 
@@ -50,37 +96,485 @@ public class LZNF {
      */
     public LZNF(String fileName, String outFile)
     {
+        this(fileName, outFile, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates instance for compression from fileName,
+     * to be stored as outFile, compressing blockSize bytes at a time
+     * @param fileName
+     * @param outFile
+     * @param blockSize MIN_BLOCK_SIZE to MAX_BLOCK_SIZE
+     */
+    public LZNF(String fileName, String outFile, int blockSize)
+    {
+        this(fileName, outFile, blockSize, 1, 1);
+    }
+
+    /**
+     * Creates instance for compression from fileName,
+     * to be stored as outFile, compressing blockSize bytes at a time
+     * on up to threads threads
+     * @param fileName
+     * @param outFile
+     * @param blockSize MIN_BLOCK_SIZE to MAX_BLOCK_SIZE
+     * @param threads number of threads compressing blocks
+     * @param maxBlocksInFlight blocks read but not yet written, caps memory use
+     */
+    public LZNF(String fileName, String outFile, int blockSize, int threads, int maxBlocksInFlight)
+    {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE)
+        {
+            throw new IllegalArgumentException("Block size must be between "
+                    + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE + ": " + blockSize);
+        }
+        if (threads < 1) throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+        if (maxBlocksInFlight < 1)
+        {
+            throw new IllegalArgumentException("Blocks in flight must be at least 1: " + maxBlocksInFlight);
+        }
         this.fileName = fileName;
         this.outFile = outFile;
-        this.inputBank = FileIO.getBankFromFile(fileName);
-        if (this.inputBank == null) throw new NotValidFileException("File not found.");
+        this.blockSize = blockSize;
+        this.threads = threads;
+        this.maxBlocksInFlight = maxBlocksInFlight;
+        if (!FileIO.getFile(fileName).isFile()) throw new NotValidFileException("File not found.");
+    }
+
+    /**
+     * get timings and counts of the last Compress() or Decompress(),
+     * added up over all blocks
+     * @return CompressionStats
+     */
+    public CompressionStats getStats()
+    {
+        return stats;
     }
 
     /**
      * Compress and save
+     * on a pool of the configured number of threads
      */
     public void Compress()
     {
-        Compress zip = new Compress(inputBank);
-        long time = System.currentTimeMillis();
-        zip.compress();
-        //zip.encodeHuffman();
-        System.out.println("Elapsed no file funcs:" + (System.currentTimeMillis()- time));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            Compress(pool);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compress and save, compressing blocks on executor.
+     * blocks are written in order so the output does not depend on
+     * the number of threads. the header is written first and rewritten
+     * with the length, checksum and index offset once the last block
+     * and the block index are done
+     * @param executor ExecutorService to compress blocks on
+     */
+    public void Compress(ExecutorService executor)
+    {
+        stats = new CompressionStats();
+        FileHeader header = new FileHeader(fileName, 0, 0, ContextTable.DEFAULT_BITS);
+        header.setDataOffset(header.getHeader().length);
+        final int contextBits = header.getContextBits();
+        CRC32 crc = new CRC32();
+        Deque<Future<PackedBlock>> inFlight = new ArrayDeque<>();
+        BlockIndex index = new BlockIndex();
         
-        byte[] outStream = new LZNFFile(fileName, inputBank, zip).pack();
-        FileIO.bufferToFile(outStream, outFile);
-        //System.out.println("after huffman " + outputBank.size());
+        try (FileChannel out = FileChannel.open(FileIO.getFile(outFile).toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            // blocks are copied straight from the page cache, without
+            // the extra native buffer copy of FileInputStream.read
+            MappedByteBuffer in = FileIO.mapFile(fileName);
+            int fileLength = in.remaining();
+            
+            FileIO.writeFully(out, ByteBuffer.wrap(header.getHeader()));
+            int blocks = 0;
+            while (in.hasRemaining())
+            {
+                final byte[] data = new byte[Math.min(blockSize, in.remaining())];
+                in.get(data);
+                long start = System.nanoTime();
+                crc.update(data);
+                stats.addTime(CompressionStats.Phase.CRC, System.nanoTime() - start);
+                
+                final int blockId = blocks++;
+                inFlight.add(executor.submit(() -> compressBlock(data, contextBits, blockId)));
+                if (inFlight.size() >= maxBlocksInFlight)
+                {
+                    writeBlock(out, index, await(inFlight.remove()));
+                }
+            }
+            while (!inFlight.isEmpty())
+            {
+                writeBlock(out, index, await(inFlight.remove()));
+            }
+            
+            // zero block length ends the blocks, followed by the index
+            header.setIndexOffset(out.position() + 4);
+            FileIO.writeFully(out, new ByteBuffer[] { ByteBuffer.allocate(4), ByteBuffer.wrap(index.pack()) });
+            
+            header.setFileLength(fileLength);
+            header.setCRC32((int) crc.getValue());
+            out.position(0);
+            FileIO.writeFully(out, ByteBuffer.wrap(header.getHeader()));
+        }
+        catch (IOException ioe)
+        {
+            CodecMetrics.getInstance().compressFailed(ioe);
+            throw new UncheckedIOException(ioe);
+        }
+        catch (NotValidFileException e)
+        {
+            CodecMetrics.getInstance().compressFailed(e);
+            throw e;
+        }
+        finally
+        {
+            for (Future<PackedBlock> f : inFlight) f.cancel(true);
+        }
+    }
+
+    /**
+     * packed block as views of its encoded streams, with the stats of compressing it
+     */
+    static final class PackedBlock
+    {
+        final ByteBuffer[] buffers;
+        final int length;
+        final int uncompressedLength;
+        final int crc32;
+        final CompressionStats stats;
+
+        PackedBlock(ByteBuffer[] buffers, int uncompressedLength, int crc32, CompressionStats stats)
+        {
+            int packed = 0;
+            for (ByteBuffer buffer : buffers) packed += buffer.remaining();
+            this.buffers = buffers;
+            this.length = packed;
+            this.uncompressedLength = uncompressedLength;
+            this.crc32 = crc32;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * compress and pack a single block
+     * @param block byte array of block to compress
+     * @param contextBits number of context table hash bits
+     * @param blockId block number in the file or stream
+     * @return PackedBlock
+     */
+    static PackedBlock compressBlock(byte[] block, int contextBits, int blockId)
+    {
+        return compressBlock(block, block.length, new CompressorContext(contextBits), blockId);
+    }
+
+    /**
+     * compress and pack the start of an array as a single block, reusing the
+     * buffers of a context. The packed block shares the streams and stats of the context,
+     * or the array itself if stored, so it has to be written before the context
+     * compresses another block or the array is changed
+     * @param block byte array holding the block to compress
+     * @param length length of the block
+     * @param context CompressorContext of the calling thread
+     * @param blockId block number in the file or stream
+     * @return PackedBlock
+     */
+    static PackedBlock compressBlock(byte[] block, int length, CompressorContext context, int blockId)
+    {
+        Compress zip = context.compressor(block, 0, length);
+        zip.setBlockId(blockId);
+        CompressionStats blockStats = zip.compress();
+        PhaseTimer timer = zip.getTimer();
+        timer.start(CompressionStats.Phase.CRC);
+        int crc32 = (int) FileIO.getCRC32(block, 0, length);
+        timer.next(length, CompressionStats.Phase.PACK);
+        PackedBlock packed = new PackedBlock(LZNFFile.blockBuffers(length, crc32, zip), length, crc32, blockStats);
+        timer.stop(packed.length);
+        blockStats.setCompressedBytes(packed.length);
+        return packed;
+    }
+
+    /**
+     * write a packed block and add it to the index and stats
+     * @param out FileChannel to write to
+     * @param index BlockIndex of blocks written so far
+     * @param block PackedBlock
+     * @throws IOException if the file can not be written
+     */
+    private void writeBlock(FileChannel out, BlockIndex index, PackedBlock block) throws IOException
+    {
+        index.add(out.position(), block.length, block.uncompressedLength, block.crc32);
+        FileIO.writeFully(out, block.buffers);
+        stats.merge(block.stats);
+    }
+
+    /**
+     * wait for a block task, rethrowing its exception
+     * @param future Future of block task
+     * @return result of block task
+     */
+    private static <T> T await(Future<T> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while compressing.", ie);
+        }
+        catch (ExecutionException ee)
+        {
+            if (ee.getCause() instanceof RuntimeException) throw (RuntimeException) ee.getCause();
+            if (ee.getCause() instanceof IOException) throw new UncheckedIOException((IOException) ee.getCause());
+            if (ee.getCause() instanceof Error) throw (Error) ee.getCause();
+            throw new IllegalStateException(ee.getCause());
+        }
     }
 
     /**
      * Decompress and save
+     * one block at a time, or through the block index on a pool
+     * of the configured number of threads. files saved from an
+     * LZNFOutputStream have no index offset and are read as a stream
      */
     public void Decompress()
     {
-        LZNFFile ifile = new LZNFFile(inputBank);
-        Decompress unzip = new Decompress(ifile);
-        unzip.decompress();
-        FileIO.bufferToFile(unzip.getOutstream(), ifile.getHeader().getFileName());
+        stats = new CompressionStats();
+        FileHeader header = readHeader();
+        if (!header.hasIndex())
+        {
+            decompressStreamed(header);
+            return;
+        }
+        if (threads == 1)
+        {
+            decompressSerial();
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            Decompress(pool);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Decompress and save, decompressing blocks on executor.
+     * each block is checked against its own checksum and its index
+     * entry, and written to its own part of a mapping of the output file,
+     * pre-sized from the length in the header. The whole file is then
+     * checked against the checksum in the header
+     * @param executor ExecutorService to decompress blocks on
+     */
+    public void Decompress(ExecutorService executor)
+    {
+        final CompressionStats total = new CompressionStats();
+        stats = total;
+        List<Future<?>> blocks = new ArrayList<>();
+        LZNFFile ifile;
+        int crc32;
+        try (FileChannel in = FileChannel.open(FileIO.getFile(fileName).toPath(), StandardOpenOption.READ))
+        {
+            ifile = new LZNFFile(in);
+            BlockIndex index = ifile.getBlockIndex();
+            if (index.getUncompressedLength() != ifile.getHeader().getFileLength())
+            {
+                throw new NotValidFileException("Not a valid LZNF File.");
+            }
+            
+            try (FileChannel out = openOutput(ifile))
+            {
+                MappedByteBuffer map = FileIO.mapOutput(out, ifile.getHeader().getFileLength());
+                for (int i = 0; i < index.size(); i++)
+                {
+                    final int block = i;
+                    blocks.add(executor.submit(() -> {
+                        LZNFFile blockFile = ifile.getBlock(block);
+                        // the index places the block in the output, so it
+                        // has to describe the block that is there
+                        if (blockFile.getBlockLength() == 0
+                                || blockFile.getBlockLength() != index.getUncompressedSize(block)
+                                || blockFile.getBlockCRC32() != index.getCRC32(block))
+                        {
+                            throw new NotValidFileException("Not a valid LZNF File.");
+                        }
+                        // each task writes through its own view of the mapping,
+                        // a STORED block straight from the bytes read
+                        ByteBuffer view = map.duplicate();
+                        view.position((int) index.getUncompressedOffset(block));
+                        total.merge(new Decompress(blockFile).decompressTo(view));
+                        return null;
+                    }));
+                }
+                for (Future<?> f : blocks)
+                {
+                    await(f);
+                }
+                
+                long start = System.nanoTime();
+                CRC32 crc = new CRC32();
+                crc.update(map.duplicate());
+                crc32 = (int) crc.getValue();
+                total.addTime(CompressionStats.Phase.CRC, System.nanoTime() - start);
+            }
+        }
+        catch (IOException ioe)
+        {
+            CodecMetrics.getInstance().decompressFailed(ioe);
+            throw new UncheckedIOException(ioe);
+        }
+        catch (NotValidFileException | UncheckedIOException e)
+        {
+            // I/O errors of the block tasks come back from await unchecked
+            CodecMetrics.getInstance().decompressFailed(e);
+            throw e;
+        }
+        finally
+        {
+            for (Future<?> f : blocks) f.cancel(true);
+        }
+        
+        if (ifile.getHeader().getCRC32() != crc32)
+        {
+            InvalidChecksumException e = new InvalidChecksumException("Error in decompressing file or corrupted file.");
+            CodecMetrics.getInstance().decompressFailed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Decompress and save, reading one block at a time
+     * into a mapping of the output file, then checking the
+     * whole file against the checksum in the header
+     */
+    private void decompressSerial()
+    {
+        CRC32 crc = new CRC32();
+        DecompressorContext context = new DecompressorContext();
+        LZNFFile ifile;
+        
+        try (InputStream in = new BufferedInputStream(new FileInputStream(fileName)))
+        {
+            ifile = new LZNFFile(in);
+            try (FileChannel out = openOutput(ifile))
+            {
+                MappedByteBuffer map = FileIO.mapOutput(out, ifile.getHeader().getFileLength());
+                while (ifile.nextBlock())
+                {
+                    // blocks are decoded through the buffer of the context,
+                    // STORED blocks go straight from the bytes read
+                    byte[] block = context.outputBuffer(ifile.getBlockLength());
+                    stats.merge(context.decompressor(ifile, block, 0).decompressTo(map));
+                }
+                if (map.hasRemaining()) throw new NotValidFileException("Not a valid LZNF File.");
+                
+                long start = System.nanoTime();
+                ByteBuffer written = map.duplicate();
+                written.flip();
+                crc.update(written);
+                stats.addTime(CompressionStats.Phase.CRC, System.nanoTime() - start);
+            }
+        }
+        catch (EOFException eofe)
+        {
+            // a block or stream length runs past the end of the file,
+            // reported as the parallel path reports it
+            NotValidFileException e = new NotValidFileException("Not a valid LZNF File.");
+            e.initCause(eofe);
+            CodecMetrics.getInstance().decompressFailed(e);
+            throw e;
+        }
+        catch (IOException ioe)
+        {
+            CodecMetrics.getInstance().decompressFailed(ioe);
+            throw new UncheckedIOException(ioe);
+        }
+        catch (NotValidFileException e)
+        {
+            CodecMetrics.getInstance().decompressFailed(e);
+            throw e;
+        }
+        
+        if (ifile.getHeader().getCRC32() != (int) crc.getValue())
+        {
+            InvalidChecksumException e = new InvalidChecksumException("Error in decompressing file or corrupted file.");
+            CodecMetrics.getInstance().decompressFailed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Decompress and save through an LZNFInputStream
+     * @param header FileHeader of the file
+     */
+    private void decompressStreamed(FileHeader header)
+    {
+        try (LZNFInputStream in = new LZNFInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+             OutputStream out = new FileOutputStream(header.getFileName()))
+        {
+            byte[] buffer = new byte[MIN_BLOCK_SIZE];
+            int length;
+            while ((length = in.read(buffer)) > 0)
+            {
+                out.write(buffer, 0, length);
+            }
+            stats = in.getStats();
+        }
+        catch (IOException ioe)
+        {
+            CodecMetrics.getInstance().decompressFailed(ioe);
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * read just the header of the compressed file
+     * @return FileHeader
+     */
+    private FileHeader readHeader()
+    {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(fileName)))
+        {
+            return new FileHeader(in);
+        }
+        catch (IOException ioe)
+        {
+            CodecMetrics.getInstance().decompressFailed(ioe);
+            throw new UncheckedIOException(ioe);
+        }
+        catch (NotValidFileException e)
+        {
+            CodecMetrics.getInstance().decompressFailed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * open the file named in the header for writing, read access
+     * is needed to map it
+     * @param ifile LZNFFile being decompressed
+     * @return FileChannel of output file
+     * @throws IOException if the file can not be opened
+     */
+    private static FileChannel openOutput(LZNFFile ifile) throws IOException
+    {
+        return FileChannel.open(FileIO.getFile(ifile.getHeader().getFileName()).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
     }
 
     /*
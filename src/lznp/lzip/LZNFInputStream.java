@@ -0,0 +1,218 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.lzip;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import lznp.exception.InvalidChecksumException;
+import lznp.exception.NotValidFileException;
+import lznp.util.BlockIndex;
+import lznp.util.FileHeader;
+import lznp.util.LZNFFile;
+
+/**
+ * LZNFInputStream class
+ * decompresses an LZNF stream one block at a time as it is read,
+ * from LZNFOutputStream or a file saved by LZNF.Compress().
+ * Each block is checked against its own checksum, and the whole
+ * data against the block index and, if set, the header.
+ * The underlying stream is left positioned after the block index
+ * @author /u/Philboyd_Studge
+ */
+public class LZNFInputStream extends FilterInputStream
+{
+    private final LZNFFile file;
+    private final CRC32 crc = new CRC32();
+    private final CompressionStats stats = new CompressionStats();
+    private final DecompressorContext context = new DecompressorContext();
+    private byte[] block = new byte[0];
+    private int limit;
+    private int pos;
+    private int blocks;
+    private long length;
+    private boolean eof;
+
+    /**
+     * Creates stream, reading the header
+     * @param in stream of compressed data, positioned at the header
+     * @throws IOException if the header can not be read
+     */
+    public LZNFInputStream(InputStream in) throws IOException
+    {
+        super(in);
+        try
+        {
+            this.file = new LZNFFile(in);
+        }
+        catch (NotValidFileException e)
+        {
+            CodecMetrics.getInstance().decompressFailed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * get header of the stream
+     * @return FileHeader
+     */
+    public FileHeader getHeader()
+    {
+        return file.getHeader();
+    }
+
+    /**
+     * get timings and counts of the blocks read so far
+     * @return CompressionStats
+     */
+    public CompressionStats getStats()
+    {
+        return stats;
+    }
+
+    /**
+     * read a single byte
+     * @return byte as an int 0 to 255, -1 at end of stream
+     * @throws IOException if the stream can not be read
+     */
+    @Override
+    public int read() throws IOException
+    {
+        if (pos == limit && !nextBlock()) return -1;
+        return block[pos++] & 0xff;
+    }
+
+    /**
+     * read up to len bytes into b starting at off
+     * @param b byte array
+     * @param off start offset in b
+     * @param len maximum number of bytes to read
+     * @return number of bytes read, -1 at end of stream
+     * @throws IOException if the stream can not be read
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+        if (len == 0) return 0;
+        if (pos == limit && !nextBlock()) return -1;
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * skip up to n decompressed bytes
+     * @param n number of bytes to skip
+     * @return number of bytes skipped
+     * @throws IOException if the stream can not be read
+     */
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = 0;
+        while (skipped < n && (pos < limit || nextBlock()))
+        {
+            int step = (int) Math.min(n - skipped, limit - pos);
+            pos += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    /**
+     * number of bytes left in the current block
+     * @return integer bytes that can be read without decompressing
+     */
+    @Override
+    public int available()
+    {
+        return limit - pos;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit)
+    {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException
+    {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * decompress the next block into the output buffer of the context,
+     * which is reused for every block
+     * @return false at the end of the stream
+     * @throws IOException if the stream can not be read
+     */
+    private boolean nextBlock() throws IOException
+    {
+        if (eof) return false;
+        try
+        {
+            if (!file.nextBlock())
+            {
+                eof = true;
+                checkIndex(file.readBlockIndex());
+                return false;
+            }
+        }
+        catch (NotValidFileException e)
+        {
+            CodecMetrics.getInstance().decompressFailed(e);
+            throw e;
+        }
+        int blockLength = file.getBlockLength();
+        block = context.outputBuffer(blockLength);
+        // nothing is left to read from the last block if this one fails
+        pos = limit = 0;
+        stats.merge(context.decompressor(file, block, 0).decompress());
+        limit = blockLength;
+        blocks++;
+        length += blockLength;
+        crc.update(block, 0, blockLength);
+        return true;
+    }
+
+    /**
+     * check the blocks read against the block index, and the header
+     * if the stream was written with the length and checksum filled in
+     * @param index BlockIndex following the last block
+     */
+    private void checkIndex(BlockIndex index)
+    {
+        if (index.size() != blocks || index.getUncompressedLength() != length)
+        {
+            throw new NotValidFileException("Not a valid LZNF File.");
+        }
+        FileHeader header = file.getHeader();
+        if (header.hasIndex() && (header.getFileLength() != length || header.getCRC32() != (int) crc.getValue()))
+        {
+            InvalidChecksumException e = new InvalidChecksumException("Error in decompressing file or corrupted file.");
+            CodecMetrics.getInstance().decompressFailed(e);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.lzip;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import lznp.util.BlockIndex;
+import lznp.util.FileHeader;
+import lznp.util.Utils;
+
+/**
+ * LZNFOutputStream class
+ * compresses everything written to it into an LZNF stream, one block
+ * at a time as each block fills up, so the data never has to be staged
+ * in a file. The header can not be rewritten afterwards, so the file
+ * length, checksum and index offset are left 0. Each block still carries
+ * its own checksum, and the block index still follows the last block.
+ * A block is written when it is full or the stream is finished. Like
+ * DeflaterOutputStream, flush() only flushes the underlying stream unless
+ * the stream was created with syncFlush, then it also writes the bytes
+ * buffered so far as a shorter block, so a reader on a socket or pipe
+ * does not wait for a whole block. Each such block costs ratio.
+ * Read back with LZNFInputStream, or LZNF.Decompress() if saved to a file
+ * @author /u/Philboyd_Studge
+ */
+public class LZNFOutputStream extends FilterOutputStream
+{
+    private final CompressorContext context;
+    private final BlockIndex index = new BlockIndex();
+    private final CompressionStats stats = new CompressionStats();
+    private byte[] block;
+    private int count;
+    private long position;
+    private boolean finished;
+    private final boolean syncFlush;
+
+    /**
+     * Creates stream with no file name and the default block size
+     * @param out stream to write compressed data to
+     * @throws IOException if the header can not be written
+     */
+    public LZNFOutputStream(OutputStream out) throws IOException
+    {
+        this(out, "");
+    }
+
+    /**
+     * Creates stream with the default block size
+     * @param out stream to write compressed data to
+     * @param fileName name to store in the header
+     * @throws IOException if the header can not be written
+     */
+    public LZNFOutputStream(OutputStream out, String fileName) throws IOException
+    {
+        this(out, fileName, LZNF.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates stream compressing blockSize bytes at a time
+     * @param out stream to write compressed data to
+     * @param fileName name to store in the header
+     * @param blockSize LZNF.MIN_BLOCK_SIZE to LZNF.MAX_BLOCK_SIZE
+     * @throws IOException if the header can not be written
+     */
+    public LZNFOutputStream(OutputStream out, String fileName, int blockSize) throws IOException
+    {
+        this(out, fileName, blockSize, false);
+    }
+
+    /**
+     * Creates stream compressing blockSize bytes at a time
+     * @param out stream to write compressed data to
+     * @param fileName name to store in the header
+     * @param blockSize LZNF.MIN_BLOCK_SIZE to LZNF.MAX_BLOCK_SIZE
+     * @param syncFlush true if flush() writes the buffered bytes as a block
+     * @throws IOException if the header can not be written
+     */
+    public LZNFOutputStream(OutputStream out, String fileName, int blockSize, boolean syncFlush) throws IOException
+    {
+        super(out);
+        this.syncFlush = syncFlush;
+        if (blockSize < LZNF.MIN_BLOCK_SIZE || blockSize > LZNF.MAX_BLOCK_SIZE)
+        {
+            throw new IllegalArgumentException("Block size must be between "
+                    + LZNF.MIN_BLOCK_SIZE + " and " + LZNF.MAX_BLOCK_SIZE + ": " + blockSize);
+        }
+        this.block = new byte[blockSize];
+
+        FileHeader header = new FileHeader(fileName, 0, 0, ContextTable.DEFAULT_BITS);
+        header.setDataOffset(header.getHeader().length);
+        this.context = new CompressorContext(header.getContextBits());
+        out.write(header.getHeader());
+        position = header.getHeader().length;
+    }
+
+    /**
+     * write a single byte
+     * @param b byte to write, as an int
+     * @throws IOException if a full block can not be written
+     */
+    @Override
+    public void write(int b) throws IOException
+    {
+        ensureOpen();
+        block[count++] = (byte) b;
+        if (count == block.length) writeBlock();
+    }
+
+    /**
+     * write len bytes of b starting at off
+     * @param b byte array
+     * @param off start offset in b
+     * @param len number of bytes to write
+     * @throws IOException if a full block can not be written
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) throw new IndexOutOfBoundsException();
+        while (len > 0)
+        {
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == block.length) writeBlock();
+        }
+    }
+
+    /**
+     * compress and write the bytes buffered so far as a block
+     * @throws IOException if the block can not be written
+     */
+    private void writeBlock() throws IOException
+    {
+        // the buffer is only read while compressing and writing, so it is reused
+        LZNF.PackedBlock packed = LZNF.compressBlock(block, count, context, index.size());
+        // the views are backed by arrays, written without packing them together
+        for (ByteBuffer buffer : packed.buffers)
+        {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        index.add(position, packed.length, packed.uncompressedLength, packed.crc32);
+        position += packed.length;
+        stats.merge(packed.stats);
+        count = 0;
+    }
+
+    /**
+     * flush the underlying stream, with syncFlush first writing
+     * the bytes buffered so far as a block
+     * @throws IOException if the stream can not be written
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if (syncFlush && !finished && count > 0) writeBlock();
+        out.flush();
+    }
+
+    /**
+     * get timings and counts of the blocks written so far
+     * @return CompressionStats
+     */
+    public CompressionStats getStats()
+    {
+        return stats;
+    }
+
+    /**
+     * write the last block, the end marker and the block index without
+     * closing the underlying stream
+     * @throws IOException if the stream can not be written
+     */
+    public void finish() throws IOException
+    {
+        if (finished) return;
+        if (count > 0) writeBlock();
+        out.write(Utils.intToByte(0));
+        out.write(index.pack());
+        out.flush();
+        finished = true;
+        block = null;
+    }
+
+    /**
+     * finish the stream and close the underlying stream
+     * @throws IOException if the stream can not be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            finish();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (finished) throw new IOException("Stream finished.");
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.lzip;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram class
+ * lock-free histogram of nanosecond latencies. Each power of two is
+ * split into four buckets, so percentiles are within 25% of the true value
+ * @author /u/Philboyd_Studge
+ */
+class LatencyHistogram
+{
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram()
+    {
+        for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+    }
+
+    /**
+     * bucket of a value, values below SUB_BUCKETS get their own bucket
+     * @param value non-negative long
+     * @return bucket index
+     */
+    private static int index(long value)
+    {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * largest value in a bucket
+     * @param index bucket index
+     * @return long value
+     */
+    private static long upperBound(int index)
+    {
+        if (index < SUB_BUCKETS) return index;
+        int exp = index / SUB_BUCKETS + SUB_BITS - 1;
+        long width = 1L << (exp - SUB_BITS);
+        return (SUB_BUCKETS + index % SUB_BUCKETS) * width + width - 1;
+    }
+
+    void record(long nanos)
+    {
+        if (nanos < 0) nanos = 0;
+        counts[index(nanos)].increment();
+        max.accumulate(nanos);
+    }
+
+    /**
+     * value below which the fraction p of recorded values fall
+     * @param p fraction 0 to 1
+     * @return long nanoseconds, 0 if nothing recorded
+     */
+    long percentile(double p)
+    {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            snapshot[i] = counts[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    long max()
+    {
+        return max.get();
+    }
+
+    void reset()
+    {
+        for (LongAdder count : counts) count.reset();
+        max.reset();
+    }
+}
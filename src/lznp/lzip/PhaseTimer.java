@@ -0,0 +1,93 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.lzip;
+
+import lznp.event.Events;
+import lznp.event.PhaseEvent;
+
+/**
+ * PhaseTimer class
+ * times consecutive phases of one block, adding each to CompressionStats
+ * and committing it as a PhaseEvent while a JFR recording enables it
+ * @author /u/Philboyd_Studge
+ */
+class PhaseTimer
+{
+    private final CompressionStats stats;
+    private int blockId;
+    private CompressionStats.Phase phase;
+    private PhaseEvent event;
+    private long start;
+
+    /**
+     * Creates timer for a block
+     * @param stats CompressionStats of the block
+     * @param blockId block number, -1 if not known
+     */
+    PhaseTimer(CompressionStats stats, int blockId)
+    {
+        this.stats = stats;
+        this.blockId = blockId;
+    }
+
+    /**
+     * set block number reported in PhaseEvents, when the timer is reused
+     * @param blockId block number, -1 if not known
+     */
+    void setBlockId(int blockId)
+    {
+        this.blockId = blockId;
+    }
+
+    /**
+     * start timing a phase
+     * @param next Phase starting now
+     */
+    void start(CompressionStats.Phase next)
+    {
+        phase = next;
+        event = Events.beginPhase();
+        start = System.nanoTime();
+    }
+
+    /**
+     * end the current phase
+     * @param bytes number of bytes handled by the phase
+     */
+    void stop(long bytes)
+    {
+        stats.addTime(phase, System.nanoTime() - start);
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.phase = phase.name();
+            event.blockId = blockId;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * end the current phase and start the next
+     * @param bytes number of bytes handled by the ending phase
+     * @param next Phase starting now
+     */
+    void next(long bytes, CompressionStats.Phase next)
+    {
+        stop(bytes);
+        start(next);
+    }
+}
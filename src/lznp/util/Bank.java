@@ -14,14 +14,19 @@
  */
 package lznp.util;
 
+import java.nio.ByteBuffer;
+
 /** Class<b>Bank</b><br>
  * Creates memory bank byte[ ] arrays and automatically gets the <b>CRC32</b> checksum.<br>
+ * A bank can also wrap a ByteBuffer, such as a memory-mapped file, in which
+ * case the byte array is only copied out if getBank() is called.<br>
  * 
  * @author /u/Philboyd_Studge
  */
 public class Bank {
     
-    private final byte[] bank;
+    private final ByteBuffer buffer;
+    private byte[] bank;
     private long crc32;
 
     /**
@@ -31,6 +36,7 @@ public class Bank {
     public Bank(int size)
     {
         bank = new byte[size];
+        buffer = ByteBuffer.wrap(bank);
         crc32 = 0;
     }
 
@@ -41,25 +47,52 @@ public class Bank {
     public Bank(byte[] b)
     {
         bank = b;
+        buffer = ByteBuffer.wrap(bank);
+        setCRC32();
+    }
+
+    /**
+     * Creates a byte bank from the remaining bytes of a ByteBuffer
+     * without copying them
+     * @param b ByteBuffer, for example from FileIO.mapFile
+     */
+    public Bank(ByteBuffer b)
+    {
+        buffer = b.slice();
         setCRC32();
     }
 
     /**
      * get byte array from bank
+     * a bank wrapping a ByteBuffer copies it to the heap on first call
      * @return byte array
      */
     public byte[] getBank()
     {
+        if (bank == null)
+        {
+            bank = new byte[buffer.remaining()];
+            buffer.duplicate().get(bank);
+        }
         return bank;
     }
 
+    /**
+     * get bytes of bank without copying them
+     * @return read-only ByteBuffer of bank
+     */
+    public ByteBuffer getBuffer()
+    {
+        return buffer.asReadOnlyBuffer();
+    }
+
     /**
      * size of bank
      * @return integer size of bank
      */
     public int size()
     {
-        return bank.length;
+        return buffer.remaining();
     }
 
     /**
@@ -67,7 +100,7 @@ public class Bank {
      */
     private void setCRC32()
     {
-        crc32 = FileIO.getCRC32(bank);
+        crc32 = FileIO.getCRC32(buffer);
     }
 
     /**
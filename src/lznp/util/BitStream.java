@@ -14,35 +14,65 @@
  */
 package lznp.util;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
  * BitStream class
- * for reading and writing variable lengths of bits to a byte array
+ * for reading and writing variable lengths of bits to a byte array.
+ * bits are written and read through a 64-bit buffer, first bit in the
+ * highest position of each byte.
+ * A stream can also read a window of a larger array, and a closed
+ * stream only trims its array when getBank() is called, so reset()
+ * and copyTo() can reuse it without copies
  * @author /u/Philboyd_Studge
  */
 public class BitStream {
     
     private final int DEFAULT_SIZE = 256;
+    
+    // most bits pushed or read in one call
+    public static final int MAX_BITS = 57;
 
     // byte array for actual BitStream
     private byte[] bank;
     
-    // boolean array representation of a single byte
-    private boolean[] bits = new boolean[8];
+    // start of the stream in bank, only set when reading a window
+    private int offset;
+    
+    // size of the stream, bank.length until closed unless reading a window
+    private int length;
+    
+    // stream part of bank as a ByteBuffer for reading and writing 8 bytes at a time
+    private ByteBuffer words;
+    
+    // bits waiting to be written, last bit in the lowest position
+    private long writeBuffer;
     
-    // current position in bit array
-    private int bitPosition;
+    // number of valid bits in writeBuffer
+    private int writeBufferBits;
     
     // current position in byte array
     private int bytePosition;
     
-    // are we at the end of the bank
-    private boolean endOfBank = false;
-    
     // number of leftover bits short of a full byte
     private byte padBits;
     
+    // bits waiting to be read, next bit in the highest position
+    private long readBuffer;
+    
+    // number of valid bits in readBuffer
+    private int readBufferBits;
+    
+    // next byte of bank to load into readBuffer
+    private int readPosition;
+    
+    // number of bytes of bank holding data, excluding padBits byte
+    private int readLength;
+    
+    // number of valid bits not yet read
+    private long bitsRemaining;
+    
     boolean closed = false;
 
     /**
@@ -50,14 +80,19 @@ public class BitStream {
      */
     public BitStream() {
         bank = new byte[DEFAULT_SIZE];
+        length = bank.length;
+        words = ByteBuffer.wrap(bank);
     }
 
     /**
      * Creates a new BitStream of given size
+     * grows if more is written
      * @param size size of BitStream
      */
     public BitStream(int size) {
-        bank = new byte[size];
+        bank = new byte[Math.max(size, 1)];
+        length = bank.length;
+        words = ByteBuffer.wrap(bank);
     }
 
     /**
@@ -66,28 +101,120 @@ public class BitStream {
      * @param bank byte array of encoded bits
      */
     public BitStream(byte[] bank)
+    {
+        this(bank, 0, bank.length);
+    }
+
+    /**
+     * Creates a new BitStream reading part of a byte array, without copying it
+     * assumes last byte is padBits
+     * @param bank byte array holding the encoded bits
+     * @param offset start of the stream in bank
+     * @param length number of bytes including the padBits byte, at least 1
+     */
+    public BitStream(byte[] bank, int offset, int length)
     {
         this.bank = bank;
-        this.padBits = bank[bank.length - 1];
-        pullByte();
+        this.offset = offset;
+        this.length = length;
+        this.words = ByteBuffer.wrap(bank, offset, length).slice();
+        this.padBits = bank[offset + length - 1];
+        closed = true;
+        startReading();
     }
 
     /**
-     * Get the byte array
+     * Get the byte array, trimmed to the stream
      * @return byte array of BitStream
      */
     public byte[] getBank()
     {
+        if (offset != 0 || length != bank.length)
+        {
+            bank = Arrays.copyOfRange(bank, offset, offset + length);
+            offset = 0;
+            words = ByteBuffer.wrap(bank);
+        }
         return bank;
     }
 
     /**
-     * grow byte array by DEFAULT_SIZE
-     * @return byte array grown by DEFAULT_SIZE
+     * view of the stream sharing its byte array, for writing
+     * it out without copying
+     * @return ByteBuffer positioned at the first byte, limited to length()
+     */
+    public ByteBuffer getBuffer()
+    {
+        return ByteBuffer.wrap(bank, offset, length).slice();
+    }
+
+    /**
+     * read part of a closed stream as a stream of its own, without copying
+     * @param start position of the part in this stream
+     * @param length number of bytes including the padBits byte of the part
+     * @return BitStream reading the part
+     * @throws IndexOutOfBoundsException if the part is not within the stream
      */
-    private byte[] grow()
+    public BitStream window(int start, int length)
     {
-        return Arrays.copyOf(bank, bank.length + DEFAULT_SIZE);
+        if (start < 0 || length < 1 || start > this.length - length)
+        {
+            throw new IndexOutOfBoundsException("Window " + start + "+" + length + " of " + this.length + " bytes");
+        }
+        return new BitStream(bank, offset + start, length);
+    }
+
+    /**
+     * copy the stream to part of a byte array
+     * @param dst byte array to copy to
+     * @param dstOffset position of the first byte in dst
+     * @return position after the last byte copied
+     */
+    public int copyTo(byte[] dst, int dstOffset)
+    {
+        System.arraycopy(bank, offset, dst, dstOffset, length);
+        return dstOffset + length;
+    }
+
+    /**
+     * empty the stream for writing again, keeping its byte array
+     * if it holds at least <code>size</code> bytes
+     * @param size size of BitStream
+     */
+    public void reset(int size)
+    {
+        if (offset != 0 || bank.length < size)
+        {
+            bank = new byte[Math.max(size, 1)];
+            offset = 0;
+        }
+        if (words.capacity() != bank.length) words = ByteBuffer.wrap(bank);
+        length = bank.length;
+        writeBuffer = 0;
+        writeBufferBits = 0;
+        bytePosition = 0;
+        padBits = 0;
+        readBuffer = 0;
+        readBufferBits = 0;
+        readPosition = 0;
+        readLength = 0;
+        bitsRemaining = 0;
+        closed = false;
+    }
+
+    /**
+     * make room for at least <code>size</code> more bytes,
+     * at least doubling the byte array
+     * @param size number of bytes needed after bytePosition
+     */
+    private void ensureCapacity(int size)
+    {
+        if (bytePosition + size > bank.length)
+        {
+            bank = Arrays.copyOf(bank, Math.max(bank.length * 2, bytePosition + size));
+            length = bank.length;
+            words = ByteBuffer.wrap(bank);
+        }
     }
 
     /**
@@ -96,7 +223,7 @@ public class BitStream {
      */
     public int length()
     {
-        return bank.length;
+        return length;
     }
 
     /**
@@ -105,7 +232,7 @@ public class BitStream {
      */
     public boolean EOB()
     {
-        return endOfBank;
+        return bitsRemaining <= 0;
     }
 
     /**
@@ -115,37 +242,18 @@ public class BitStream {
      */
     public void pushBit(boolean bit)
     {
-        if (closed) return;
-        bits[bitPosition] = bit;
-        bitPosition++;
-        if (bitPosition > 7) {
-            flush();
-        }
+        pushBits(bit ? 1L : 0L, 1);
     }
 
     /**
-     * flush the full byte to the BitStream
+     * write all full bytes of writeBuffer to the byte array,
+     * as a single 8 byte write
      */
     private void flush() {
-        int makeByte = 0;
-        for (int i = 0; i < 8; i++) {
-            // push 1's to the correct bit position
-            if (bits[i]) makeByte |= 1 << 7 - i;
-        }
-        bank[bytePosition] = (byte) (makeByte & 0xff);
-        bytePosition++;
-        if (bytePosition >= bank.length) bank = grow();
-        bitPosition = 0;
-        clearBits();        
-    }
-
-    /**
-     * set all bits in the current bit[] array to 0
-     */
-    private void clearBits() {
-        for (int i = 0; i < bits.length; i++) {
-            bits[i] = false;
-        }
+        ensureCapacity(8);
+        words.putLong(bytePosition, writeBuffer << (64 - writeBufferBits));
+        bytePosition += writeBufferBits >>> 3;
+        writeBufferBits &= 7;
     }
 
     /**
@@ -154,35 +262,86 @@ public class BitStream {
      * @param inBits integer value to push 
      */
     public void pushBits(int inBits) {
-        int len = 31 - Integer.numberOfLeadingZeros(inBits);
-        while(len >= 0) {
-            pushBit((inBits >> len & 1) == 1);
-            len--;
-        }
+        pushBits(inBits, 32 - Integer.numberOfLeadingZeros(inBits));
     }
 
     /**
      * Push bits to BitStream
      * pushes a set length of bits, padding with zeroes if necessary
-     * if value length is greater than length, will push entire value
+     * if value length is greater than length, only the lowest length bits are pushed
      * @param value integer value to push
      * @param length number of bits to push
      */
     public void pushBits(int value, int length)
     {
-        // TODO : Is there a way to do this with bit math
-//        String str = Integer.toBinaryString(value);
-//        while (str.length() < length)
-//        {
-//            str = "0" + str;
-//        }
-//        pushBits(str);
-        for (int i = length - 1; i >= 0; i--)
+        pushBits(value & 0xffffffffL, length);
+    }
+
+    /**
+     * Push bits to BitStream
+     * pushes a set length of bits, padding with zeroes if necessary
+     * if value length is greater than length, only the lowest length bits are pushed
+     * @param value long value to push
+     * @param length number of bits to push, 0 to MAX_BITS
+     */
+    public void pushBits(long value, int length)
+    {
+        if (closed || length == 0) return;
+        if (writeBufferBits + length > 64) flush();
+        writeBuffer = writeBuffer << length | value & (-1L >>> (64 - length));
+        writeBufferBits += length;
+    }
+    
+    /**
+     * append the bytes of a closed stream, its padBits byte included,
+     * to a stream written up to a whole byte
+     * @param other closed BitStream
+     */
+    public void pushStream(BitStream other)
+    {
+        if (closed) return;
+        if (writeBufferBits >= 8) flush();
+        if (writeBufferBits != 0) throw new IllegalStateException("BitStream is not at a byte boundary");
+        ensureCapacity(other.length);
+        other.copyTo(bank, bytePosition);
+        bytePosition += other.length;
+    }
+
+    /**
+     * append a stream still being written, which starts with as many zero
+     * bits as this stream has past its last whole byte. The byte they share
+     * is merged and the rest copied, so parts of a long stream can be
+     * written separately and joined without shifting their bits
+     * @param segment BitStream not closed
+     */
+    public void pushSegment(BitStream segment)
+    {
+        if (closed) return;
+        if (writeBufferBits >= 8) flush();
+        if (segment.writeBufferBits >= 8) segment.flush();
+        if (segment.bytePosition == 0)
         {
-            pushBit((value >> i & 1) == 1);
+            // the leading zero bits are dropped by the mask
+            pushBits(segment.writeBuffer, segment.writeBufferBits - writeBufferBits);
+            return;
         }
+        ensureCapacity(segment.bytePosition + 8);
+        bank[bytePosition] = (byte) (writeBuffer << (8 - writeBufferBits) | segment.bank[0]);
+        System.arraycopy(segment.bank, 1, bank, bytePosition + 1, segment.bytePosition - 1);
+        bytePosition += segment.bytePosition;
+        writeBuffer = segment.writeBuffer;
+        writeBufferBits = segment.writeBufferBits;
     }
-    
+
+    /**
+     * number of bits pushed so far
+     * @return long bits
+     */
+    public long bitsPushed()
+    {
+        return bytePosition * 8L + writeBufferBits;
+    }
+
     /**
      * Push bits to BitStream
      * pushes a String representation of a binary number
@@ -197,21 +356,62 @@ public class BitStream {
     } 
 
     /**
-     * pull a byte of the current byte position 
-     * in the array
+     * set up reading from the start of the bank
      */
-    private void pullByte()
+    private void startReading()
     {
-        clearBits();
-        byte current = bank[bytePosition];
-        for (int i = 7, j = 0; i >= 0; i--, j++)
+        readBuffer = 0;
+        readBufferBits = 0;
+        readPosition = 0;
+        readLength = length - 1;
+        bitsRemaining = (long) readLength * 8 - padBits;
+    }
+
+    /**
+     * load whole bytes into readBuffer until it holds more than 56 bits
+     * or the bank runs out, past the end zeroes are read
+     */
+    private void refill()
+    {
+        if (readPosition + 8 <= readLength)
         {
-            int flagBit = 1 << i;
-            if ((current & flagBit) == flagBit) bits[j] = true;
+            // the next 8 bytes at once, the bits past the last whole
+            // byte are the same ones the next refill will load
+            readBuffer |= words.getLong(readPosition) >>> readBufferBits;
+            int bytes = (64 - readBufferBits) >>> 3;
+            readPosition += bytes;
+            readBufferBits += bytes << 3;
+            return;
         }
-        bytePosition++;
-        if (bytePosition > bank.length - 1) endOfBank = true;
-        bitPosition = 0;
+        while (readBufferBits <= 56 && readPosition < readLength)
+        {
+            readBuffer |= (long) (bank[offset + readPosition] & 0xff) << (56 - readBufferBits);
+            readPosition++;
+            readBufferBits += 8;
+        }
+        if (readPosition >= readLength) readBufferBits = 64;
+    }
+
+    /**
+     * look at the next <code>length</code> bits without reading them
+     * @param length number of bits, 1 to 32
+     * @return integer of the next bits, zero padded past the end
+     */
+    public int peekBits(int length)
+    {
+        if (readBufferBits < length) refill();
+        return (int) (readBuffer >>> (64 - length));
+    }
+
+    /**
+     * read past <code>length</code> bits already looked at with peekBits
+     * @param length number of bits, no more than the last peekBits
+     */
+    public void skipBits(int length)
+    {
+        readBuffer <<= length;
+        readBufferBits -= length;
+        bitsRemaining -= length;
     }
 
     /**
@@ -220,61 +420,68 @@ public class BitStream {
      */
     public boolean readBit()
     {
-        boolean bit = bits[bitPosition];
-        bitPosition++;
-        if (bytePosition == bank.length - 1 && bitPosition > 7 - padBits) endOfBank = true;
-        if (bitPosition > 7)
-        {
-            pullByte();
-        }
+        boolean bit = peekBits(1) == 1;
+        skipBits(1);
         return bit;
     }
     
 
     /**
      * read <code>length</code> number of bits from the stream
-     * @param length
+     * @param length number of bits, 1 to 32
      * @return integer
      */
     public int readBits(int length)
     {
-        int retval = 0;
-        for (int i = length - 1; i >= 0; i--)
-        {
-            retval |= ((readBit()) ? 1 : 0) << i;
-        }
+        int retval = peekBits(length);
+        skipBits(length);
+        return retval;
+    }
+
+    /**
+     * read <code>length</code> number of bits from the stream
+     * @param length number of bits, 1 to MAX_BITS
+     * @return long
+     */
+    public long readBitsLong(int length)
+    {
+        if (readBufferBits < length) refill();
+        long retval = readBuffer >>> (64 - length);
+        skipBits(length);
         return retval;
     }
     
     /**
      * close stream for writing operations.
-     * will pull the first byte for reading operations.
+     * will set up the stream for reading operations.
      */
     public void close() {
         if (closed) return;
         closed = true;
-        padBits = (byte)((-(bitPosition) + 8) % 8);
+        if (writeBufferBits >= 8) flush();
+        padBits = (byte)((-(writeBufferBits) + 8) % 8);
+        ensureCapacity(2);
         if (padBits > 0)
         {
-            flush();
+            bank[bytePosition] = (byte) (writeBuffer << padBits);
+            bytePosition++;
         } 
+        writeBufferBits = 0;
         bank[bytePosition] = padBits;
-        bank = Arrays.copyOfRange(bank, 0, bytePosition + 1); 
-        bitPosition = 0;
+        length = bytePosition + 1;
         bytePosition = 0;
-        pullByte();
+        startReading();
     }
  
 
     @Override
     public String toString()
     {
-        if (bitPosition != 0 ) flush();
         String retval = "";
-        for (int i = 0; i < bank.length; i++)
+        for (int i = 0; i < (closed ? length : bytePosition); i++)
         {
             if (i % 24 == 0) retval += "\n";
-            retval += Utils.toHexString((int) (bank[i] & 0xff), 2) + " ";
+            retval += Utils.toHexString((int) (bank[offset + i] & 0xff), 2) + " ";
         }
         return retval;
     }  
@@ -0,0 +1,198 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lznp.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import lznp.exception.NotValidFileException;
+
+/**
+ * BlockIndex class
+ * table of compressed offset, compressed size, uncompressed size
+ * and CRC32 checksum of every block, written after the last block
+ * so blocks can be found without reading the ones before them
+ * @author /u/Philboyd_Studge
+ */
+public class BlockIndex
+{
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int ENTRY_SIZE = 20;
+
+    private long[] offsets;
+    private long[] outOffsets;
+    private int[] compressedSizes;
+    private int[] uncompressedSizes;
+    private int[] crcs;
+    private int count;
+
+    /**
+     * Creates an empty index
+     */
+    public BlockIndex()
+    {
+        offsets = new long[DEFAULT_CAPACITY];
+        outOffsets = new long[DEFAULT_CAPACITY];
+        compressedSizes = new int[DEFAULT_CAPACITY];
+        uncompressedSizes = new int[DEFAULT_CAPACITY];
+        crcs = new int[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Creates index from packed bytes
+     * @param bank byte array from pack()
+     */
+    public BlockIndex(byte[] bank)
+    {
+        this();
+        ByteBuffer bb = ByteBuffer.wrap(bank);
+        int blocks = bb.getInt();
+        if (blocks < 0 || bank.length != 4 + blocks * ENTRY_SIZE)
+        {
+            throw new NotValidFileException("Not a valid LZNF File.");
+        }
+        for (int i = 0; i < blocks; i++)
+        {
+            add(bb.getLong(), bb.getInt(), bb.getInt(), bb.getInt());
+        }
+    }
+
+    /**
+     * add a packed block, reading its length and checksum from
+     * the block header
+     * @param offset position in file of the block
+     * @param block byte array of packed block
+     */
+    public void add(long offset, byte[] block)
+    {
+        ByteBuffer bb = ByteBuffer.wrap(block);
+        add(offset, block.length, bb.getInt(0), bb.getInt(4));
+    }
+
+    /**
+     * add a block
+     * @param offset position in file of the block
+     * @param compressedSize length of packed block
+     * @param uncompressedSize length of original data
+     * @param crc32 CRC32 checksum of original data
+     */
+    public void add(long offset, int compressedSize, int uncompressedSize, int crc32)
+    {
+        if (count == offsets.length) grow();
+        offsets[count] = offset;
+        outOffsets[count] = count == 0 ? 0 : outOffsets[count - 1] + uncompressedSizes[count - 1];
+        compressedSizes[count] = compressedSize;
+        uncompressedSizes[count] = uncompressedSize;
+        crcs[count] = crc32;
+        count++;
+    }
+
+    /**
+     * double the capacity of the index
+     */
+    private void grow()
+    {
+        offsets = Arrays.copyOf(offsets, count * 2);
+        outOffsets = Arrays.copyOf(outOffsets, count * 2);
+        compressedSizes = Arrays.copyOf(compressedSizes, count * 2);
+        uncompressedSizes = Arrays.copyOf(uncompressedSizes, count * 2);
+        crcs = Arrays.copyOf(crcs, count * 2);
+    }
+
+    /**
+     * number of blocks
+     * @return integer block count
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * position in compressed file of block
+     * @param block block number
+     * @return long offset
+     */
+    public long getOffset(int block)
+    {
+        return offsets[block];
+    }
+
+    /**
+     * position in original file of block
+     * @param block block number
+     * @return long offset
+     */
+    public long getUncompressedOffset(int block)
+    {
+        return outOffsets[block];
+    }
+
+    /**
+     * length of packed block
+     * @param block block number
+     * @return integer length
+     */
+    public int getCompressedSize(int block)
+    {
+        return compressedSizes[block];
+    }
+
+    /**
+     * length of original data of block
+     * @param block block number
+     * @return integer length
+     */
+    public int getUncompressedSize(int block)
+    {
+        return uncompressedSizes[block];
+    }
+
+    /**
+     * CRC32 checksum of original data of block
+     * @param block block number
+     * @return integer checksum
+     */
+    public int getCRC32(int block)
+    {
+        return crcs[block];
+    }
+
+    /**
+     * total length of original data
+     * @return long length
+     */
+    public long getUncompressedLength()
+    {
+        return count == 0 ? 0 : outOffsets[count - 1] + uncompressedSizes[count - 1];
+    }
+
+    /**
+     * pack index for saving
+     * @return byte array of block count followed by entries
+     */
+    public byte[] pack()
+    {
+        ByteBuffer bb = ByteBuffer.allocate(4 + count * ENTRY_SIZE);
+        bb.putInt(count);
+        for (int i = 0; i < count; i++)
+        {
+            bb.putLong(offsets[i]);
+            bb.putInt(compressedSizes[i]);
+            bb.putInt(uncompressedSizes[i]);
+            bb.putInt(crcs[i]);
+        }
+        return bb.array();
+    }
+}
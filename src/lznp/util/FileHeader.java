@@ -14,8 +14,12 @@
  */
 package lznp.util;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.util.Arrays;
 import lznp.exception.NotValidFileException;
+import lznp.lzip.ContextTable;
 
 /**
  * FileHeader class
@@ -25,7 +29,17 @@ import lznp.exception.NotValidFileException;
  */
 public class FileHeader
 {
+    // version 3 stores a BlockMode after each block checksum, version 2
+    // an EntropyCoder id before each table, version 1 files are all
+    // Huffman. All are still read
+    public static final int VERSION = 3;
+    public static final int MIN_VERSION = 1;
+    
     private final byte[] HEADER_TAG = { 0x4c, 0x5a, 0x4e, 0x46 }; // header 'LZNF'
+    private static final int FIXED_LENGTH = 36;
+    // longest file name read from a stream, so a corrupted
+    // length is not allocated
+    private static final int MAX_NAME_LENGTH = 1 << 16;
     private byte[] header;
     
     // TODO : get rid of magic numbers
@@ -35,20 +49,39 @@ public class FileHeader
     private int fileLength;
     private int nameLength;
     private int dataOffset;
+    private int contextBits;
+    private int version;
+    private long indexOffset;
 
     /**
      * constructor for compress
      * @param fileName name of file
      * @param fileBank bank with file data
+     * @param contextBits number of context table hash bits used
+     */
+    public FileHeader(String fileName, Bank fileBank, int contextBits)
+    {
+        this(fileName, fileBank.size(), (int) fileBank.getCRC32(), contextBits);
+    }
+
+    /**
+     * constructor for compress when the file is read in blocks
+     * length and checksum can be set after the last block
+     * @param fileName name of file
+     * @param fileLength length of original file
+     * @param crc32 CRC32 checksum of original file
+     * @param contextBits number of context table hash bits used
      */
-    public FileHeader(String fileName, Bank fileBank)
+    public FileHeader(String fileName, int fileLength, int crc32, int contextBits)
     {
         this.fileName = fileName;
-        this.nameLength = fileName.length();
-        this.fileLength = fileBank.size();
-        this.crc32 = (int) fileBank.getCRC32() & 0xffffffff;
+        this.nameLength = fileName.getBytes().length;
+        this.fileLength = fileLength;
+        this.crc32 = crc32;
+        this.contextBits = contextBits;
+        this.version = VERSION;
 
-        makeHeader(fileBank);
+        makeHeader();
     }
 
     /**
@@ -58,8 +91,34 @@ public class FileHeader
      */
     public FileHeader(Bank fileBank)
     {
-        this.isLZNF(fileBank);
-        this.extract(fileBank);
+        this.isLZNF(fileBank.getBank());
+        this.extract(fileBank.getBank());
+    }
+
+    /**
+     * Create FileHeader from the start of a compressed stream
+     * leaves the stream positioned at the data offset
+     * @param in stream of compressed file
+     * @throws IOException if the stream can not be read
+     * @throws NotValidFileException if the name runs past the end of the stream
+     */
+    public FileHeader(DataInputStream in) throws IOException
+    {
+        byte[] fixed = new byte[FIXED_LENGTH];
+        in.readFully(fixed);
+        this.isLZNF(fixed);
+        int length = Utils.byteToInt(Arrays.copyOfRange(fixed, 12, 16));
+        if (length < 0 || length > MAX_NAME_LENGTH) throw new NotValidFileException("Not a valid LZNF File.");
+        byte[] inBank = Arrays.copyOf(fixed, FIXED_LENGTH + length);
+        try
+        {
+            in.readFully(inBank, FIXED_LENGTH, inBank.length - FIXED_LENGTH);
+        }
+        catch (EOFException eofe)
+        {
+            throw new NotValidFileException("Not a valid LZNF File.");
+        }
+        this.extract(inBank);
     }
 
     /**
@@ -73,11 +132,11 @@ public class FileHeader
 
     /**
      * test if first four bytes are 'LZNF'
-     * @param fileBank Bank with compressed file
+     * @param inBank byte array starting with compressed file header
      */
-    private void isLZNF(Bank fileBank)
+    private void isLZNF(byte[] inBank)
     {
-        byte[] tag = Arrays.copyOfRange(fileBank.getBank(), 0, 4);
+        byte[] tag = Arrays.copyOfRange(inBank, 0, 4);
         if (!Arrays.equals(tag, HEADER_TAG))
         {
             throw new NotValidFileException("Not a valid LZNF File.");
@@ -109,6 +168,77 @@ public class FileHeader
         return crc32;
     }
 
+    /**
+     * set original file length
+     * used when the length is only known after the last block
+     * @param fileLength integer file length
+     */
+    public void setFileLength(int fileLength)
+    {
+        this.fileLength = fileLength;
+        System.arraycopy(Utils.intToByte(fileLength), 0, header, 4, 4);
+    }
+
+    /**
+     * set CRC32 checksum of original file
+     * used when the checksum is only known after the last block
+     * @param crc32 CRC32 checksum
+     */
+    public void setCRC32(int crc32)
+    {
+        this.crc32 = crc32;
+        System.arraycopy(Utils.intToByte(crc32), 0, header, 8, 4);
+    }
+
+    /**
+     * get container format version
+     * @return integer version
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * get position in file of the block index
+     * @return long offset of block index
+     */
+    public long getIndexOffset()
+    {
+        return indexOffset;
+    }
+
+    /**
+     * test if the header was completed with the length, checksum
+     * and block index offset. streams written by LZNFOutputStream
+     * can not go back to fill these in, so they are left 0
+     * @return true if the file has a block index offset
+     */
+    public boolean hasIndex()
+    {
+        return indexOffset > 0;
+    }
+
+    /**
+     * set position in file of the block index
+     * used when the offset is only known after the last block
+     * @param offset long offset of block index
+     */
+    public void setIndexOffset(long offset)
+    {
+        this.indexOffset = offset;
+        System.arraycopy(Utils.longToByte(offset), 0, header, 28, 8);
+    }
+
+    /**
+     * get number of context table hash bits used for compression
+     * @return integer bits
+     */
+    public int getContextBits()
+    {
+        return contextBits;
+    }
+
     /**
      * get original file name
      * @return String file name
@@ -134,37 +264,57 @@ public class FileHeader
 
     /**
      * make the file header
-     * @param fileBank byte array of header information
      */
-    private void makeHeader(Bank fileBank)
+    private void makeHeader()
     {
         byte[] name = fileName.getBytes();
         byte[] fileLen = Utils.intToByte(fileLength);
         byte[] crc = Utils.intToByte((int) crc32 &0xffffffff);
         byte[] nameLen = Utils.intToByte(nameLength);
+        byte[] ctxBits = Utils.intToByte(contextBits);
+        byte[] ver = Utils.intToByte(version);
 
-        header = new byte[20 + name.length];
+        header = new byte[FIXED_LENGTH + name.length];
         System.arraycopy(HEADER_TAG, 0, header, 0, 4);
         System.arraycopy(fileLen, 0, header, 4, 4);
         System.arraycopy(crc, 0, header, 8, 4);
         System.arraycopy(nameLen, 0, header, 12, 4);
         //System.arraycopy(Utils.intToByte(24 + name.length), 0, header, 16, 4);
-        System.arraycopy(name, 0, header, 20, name.length);
+        System.arraycopy(ctxBits, 0, header, 20, 4);
+        System.arraycopy(ver, 0, header, 24, 4);
+        System.arraycopy(Utils.longToByte(indexOffset), 0, header, 28, 8);
+        System.arraycopy(name, 0, header, FIXED_LENGTH, name.length);
 
     }
 
     /**
      * extract header information from compressed file
-     * @param fileBank Bank of file byte array
+     * @param inBank byte array starting with compressed file header
+     * @throws NotValidFileException if the version, name length
+     * or context bits are out of range, or the data does not start
+     * right after the name
      */
-    private void extract(Bank fileBank)
+    private void extract(byte[] inBank)
     {
-        byte[] inBank = fileBank.getBank();
+        if (inBank.length < FIXED_LENGTH) throw new NotValidFileException("Not a valid LZNF File.");
         this.fileLength = Utils.byteToInt(Arrays.copyOfRange(inBank, 4, 8));
         this.crc32 = Utils.byteToInt(Arrays.copyOfRange(inBank, 8, 12));
         this.nameLength = Utils.byteToInt(Arrays.copyOfRange(inBank, 12, 16));
         this.dataOffset = Utils.byteToInt(Arrays.copyOfRange(inBank, 16, 20));
-        this.fileName = new String(Arrays.copyOfRange(inBank, 20, 20 + nameLength));
+        this.contextBits = Utils.byteToInt(Arrays.copyOfRange(inBank, 20, 24));
+        this.version = Utils.byteToInt(Arrays.copyOfRange(inBank, 24, 28));
+        if (version < MIN_VERSION || version > VERSION) throw new NotValidFileException("Unsupported LZNF version " + version + ".");
+        // the name is the last part of the header, so a corrupted name
+        // length no longer matches where the data starts
+        if (nameLength < 0 || nameLength > inBank.length - FIXED_LENGTH
+                || dataOffset != FIXED_LENGTH + nameLength
+                || contextBits < ContextTable.MIN_BITS || contextBits > ContextTable.MAX_BITS)
+        {
+            throw new NotValidFileException("Not a valid LZNF File.");
+        }
+        this.indexOffset = Utils.byteToLong(Arrays.copyOfRange(inBank, 28, 36));
+        this.fileName = new String(Arrays.copyOfRange(inBank, FIXED_LENGTH, FIXED_LENGTH + nameLength));
+        this.header = Arrays.copyOf(inBank, FIXED_LENGTH + nameLength);
 
     }
 
@@ -14,14 +14,25 @@
  */
 package lznp.util;
 
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.io.File;
 import java.io.IOException;
 import java.util.zip.CRC32;
+import lznp.event.Events;
+import lznp.event.FileIOEvent;
+import lznp.exception.NotValidFileException;
 
 /**
  * Static File Utilities
+ * block reads, writes and mappings are recorded as FileIOEvents
  * @author /u/Philboyd_Studge
  */
 public class FileIO {
@@ -38,16 +49,14 @@ public class FileIO {
     /**
      * 
      * @param fileName
-     * @return Bank of file bytes
+     * @return Bank of file bytes, mapped rather than read into the heap
      */
     public static Bank getBankFromFile(String fileName)
     {
-        byte[] buffer;
+        MappedByteBuffer buffer;
         try
         {
-            File input = getFile(fileName);    
-            Path inputPath = input.toPath();
-            buffer = Files.readAllBytes(inputPath);
+            buffer = mapFile(fileName);
         }
         catch (IOException ioe)
         {
@@ -58,6 +67,42 @@ public class FileIO {
         return new Bank(buffer);        
     }
 
+    /**
+     * map whole file read-only. the mapping stays valid after
+     * the channel is closed
+     * @param fileName filename/path
+     * @return MappedByteBuffer of file bytes
+     * @throws IOException if the file can not be read
+     */
+    public static MappedByteBuffer mapFile(String fileName) throws IOException
+    {
+        FileIOEvent event = Events.beginFileIO();
+        try (FileChannel in = FileChannel.open(getFile(fileName).toPath(), StandardOpenOption.READ))
+        {
+            if (in.size() > Integer.MAX_VALUE) throw new NotValidFileException("File too large.");
+            MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            commit(event, "map", 0, buffer.capacity());
+            return buffer;
+        }
+    }
+
+    /**
+     * map the first size bytes of channel read-write,
+     * growing the file to size if it is shorter
+     * @param out channel opened for reading and writing
+     * @param size length of the output
+     * @return MappedByteBuffer of output
+     * @throws IOException if the file can not be mapped
+     */
+    public static MappedByteBuffer mapOutput(FileChannel out, long size) throws IOException
+    {
+        if (size > Integer.MAX_VALUE) throw new NotValidFileException("File too large.");
+        FileIOEvent event = Events.beginFileIO();
+        MappedByteBuffer buffer = out.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        commit(event, "map", 0, size);
+        return buffer;
+    }
+
     /**
      * Creates a new file of name filename
      * @param outStream byte array to push to file
@@ -77,6 +122,85 @@ public class FileIO {
         }
     }
     
+    /**
+     * write all remaining bytes of buffer to channel
+     * @param out channel to write to
+     * @param buffer ByteBuffer to write
+     * @throws IOException if the channel can not be written
+     */
+    public static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException
+    {
+        FileIOEvent event = Events.beginFileIO();
+        int length = buffer.remaining();
+        while (buffer.hasRemaining())
+        {
+            out.write(buffer);
+        }
+        commit(event, "write", -1, length);
+    }
+
+    /**
+     * write all remaining bytes of buffers to channel in order,
+     * with as few gathering writes as the channel allows
+     * @param out channel to write to
+     * @param buffers ByteBuffers to write
+     * @throws IOException if the channel can not be written
+     */
+    public static void writeFully(GatheringByteChannel out, ByteBuffer[] buffers) throws IOException
+    {
+        FileIOEvent event = Events.beginFileIO();
+        long length = 0;
+        for (ByteBuffer buffer : buffers) length += buffer.remaining();
+        long remaining = length;
+        while (remaining > 0)
+        {
+            remaining -= out.write(buffers);
+        }
+        commit(event, "write", -1, length);
+    }
+
+    /**
+     * read bytes from channel at position,
+     * without changing the position of the channel
+     * @param in channel to read from
+     * @param position position in file to read at
+     * @param length number of bytes to read
+     * @return byte array of length bytes
+     * @throws IOException if the channel can not be read or ends early
+     */
+    public static byte[] read(FileChannel in, long position, int length) throws IOException
+    {
+        FileIOEvent event = Events.beginFileIO();
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+        {
+            int read = in.read(buffer, position + buffer.position());
+            if (read < 0) throw new EOFException();
+        }
+        commit(event, "read", position, length);
+        return buffer.array();
+    }
+
+    /**
+     * commit an I/O event if it is enabled and over its threshold
+     * @param event FileIOEvent begun before the operation, null if not recorded
+     * @param operation read, write or map
+     * @param position position in file, -1 for the current position
+     * @param bytes number of bytes
+     */
+    private static void commit(FileIOEvent event, String operation, long position, long bytes)
+    {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.operation = operation;
+            event.position = position;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
     /**
      * get CRC32 checksum from byte array
      * @param bank byte array
@@ -88,6 +212,33 @@ public class FileIO {
             crc32.update(bank);
             return crc32.getValue();
     }
+
+    /**
+     * get CRC32 checksum from part of a byte array
+     * @param bank byte array
+     * @param offset first byte
+     * @param length number of bytes
+     * @return long CRC32 value
+     */
+    public static long getCRC32(byte[] bank, int offset, int length)
+    {
+            CRC32 crc32 = new CRC32();
+            crc32.update(bank, offset, length);
+            return crc32.getValue();
+    }
+
+    /**
+     * get CRC32 checksum from remaining bytes of buffer,
+     * without changing its position
+     * @param buffer ByteBuffer
+     * @return long CRC32 value
+     */
+    public static long getCRC32(ByteBuffer buffer)
+    {
+            CRC32 crc32 = new CRC32();
+            crc32.update(buffer.duplicate());
+            return crc32.getValue();
+    }
     
     
 }
@@ -14,48 +14,127 @@
  */
 package lznp.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import lznp.exception.NotValidFileException;
+import lznp.huffman.HuffmanTree;
+import lznp.lzip.BlockMode;
 import lznp.lzip.Compress;
 import lznp.lzip.CompressedBlock;
+import lznp.lzip.CompressorContext;
+import lznp.lzip.LZNF;
 
 /**
  * LZNFFile class
- * 
+ * header followed by blocks of
+ * block length, block CRC32, BlockMode byte, then the literal block and
+ * match block of an LZP block, the literal block of an ENTROPY block,
+ * or the bytes of a STORED block,
+ * then a zero block length and the BlockIndex
  * @author /u/Philboyd_Studge
  */
 public class LZNFFile
 {
+    // block length, checksum and mode
+    public static final int BLOCK_HEADER = 9;
+
+    // room for the tables and interleaved stream overhead of a
+    // stream from before version 3, which did not store blocks
+    private static final int MAX_TABLE_OVERHEAD = 1024;
+
     private final FileHeader header;
-    private CompressedBlock literals;
-    private CompressedBlock matches;
+    private DataInputStream in;
+    private FileChannel channel;
+    private BlockIndex index;
+    private int blockLength;
+    private int blockCRC32;
+    private int blockNumber = -1;
+    private BlockMode mode = BlockMode.LZP;
+    private ByteBuffer stored;
+    private Compress zip;
     private BitStream treeStream;
     private BitStream bitStream;
     private BitStream matchStream;
     private BitStream matchTreeStream;
 
     /**
-     * for decompress
+     * for decompress, with the streams of the first block read
      * @param fileBank Bank of compressed data
+     * @throws NotValidFileException if the header or first block is truncated or malformed
      */
     public LZNFFile(Bank fileBank)
     {
-	header = new FileHeader(fileBank);
-        getStreams(fileBank);
+        this.in = new DataInputStream(new ByteArrayInputStream(fileBank.getBank()));
+        header = new FileHeader(fileBank);
+        try
+        {
+            in.skipBytes(header.getDataOffset());
+            nextBlock();
+        }
+        catch (IOException ioe)
+        {
+            throw new NotValidFileException("Not a valid LZNF File.");
+        }
+    }
+
+    /**
+     * for decompress, reading one block at a time
+     * @param in stream of compressed data, positioned at the header
+     * @throws IOException if the stream can not be read
+     */
+    public LZNFFile(InputStream in) throws IOException
+    {
+        this.in = new DataInputStream(in);
+        header = new FileHeader(this.in);
     }
 
     /**
-     * for compress
+     * for decompress, reading blocks in any order through the BlockIndex
+     * @param channel FileChannel of compressed file
+     * @throws IOException if the file can not be read
+     */
+    public LZNFFile(FileChannel channel) throws IOException
+    {
+        this.channel = channel;
+        header = new FileHeader(new DataInputStream(Channels.newInputStream(channel.position(0))));
+        if (!header.hasIndex()) throw new NotValidFileException("No block index in LZNF File.");
+        if (header.getIndexOffset() > channel.size() - 4) throw new NotValidFileException("Not a valid LZNF File.");
+        int blocks = ByteBuffer.wrap(FileIO.read(channel, header.getIndexOffset(), 4)).getInt();
+        if (blocks < 0 || blocks > (Integer.MAX_VALUE - 4) / 20
+                || 4 + blocks * 20 > channel.size() - header.getIndexOffset())
+        {
+            throw new NotValidFileException("Not a valid LZNF File.");
+        }
+        index = new BlockIndex(FileIO.read(channel, header.getIndexOffset(), 4 + blocks * 20));
+    }
+
+    /**
+     * single block read from an array by readBlock
+     * @param header FileHeader of the file
+     */
+    private LZNFFile(FileHeader header)
+    {
+        this.header = header;
+    }
+
+    /**
+     * for compress, whole file as a single block
      * @param fileName name of original file
      * @param inBank bank of bytes of original file
-     * @param treeStream BitStream of Huffman tree
-     * @param bitStream BitStream of encoded data
+     * @param zip Compress with encoded literals and matches
      */
     public LZNFFile(String fileName, Bank inBank, Compress zip)
     {
-        this.header = new FileHeader(fileName, inBank);
-        this.literals = zip.getLiterals();
-        this.matches = zip.getMatches();
+        this.header = new FileHeader(fileName, inBank, zip.getContextBits());
+        this.blockLength = inBank.size();
+        this.blockCRC32 = (int) inBank.getCRC32();
+        this.zip = zip;
     }
 
     /**
@@ -64,34 +143,365 @@ public class LZNFFile
      */
     public byte[] pack()
     {
-        ByteBuffer bbLits = literals.pack();
-        ByteBuffer bbMatches = matches.pack();
-        byte[] lits = new byte[bbLits.capacity()];
-        byte[] mats = new byte[bbMatches.capacity()];
-        bbLits.get(lits);
-        bbMatches.get(mats);
-        int length = header.getHeader().length + lits.length + mats.length;
-        header.setDataOffset(header.getHeader().length);
+        ByteBuffer[] buffers = fileBuffers();
+        int length = 0;
+        for (ByteBuffer buffer : buffers) length += buffer.remaining();
         byte[] outBank = new byte[length];
-        System.arraycopy(header.getHeader(), 0, outBank, 0, header.getHeader().length);
-        System.arraycopy(lits, 0, outBank, header.getHeader().length, lits.length);
-        System.arraycopy(mats, 0, outBank, header.getHeader().length + lits.length, mats.length);
+        int position = 0;
+        for (ByteBuffer buffer : buffers)
+        {
+            int remaining = buffer.remaining();
+            buffer.get(outBank, position, remaining);
+            position += remaining;
+        }
         return outBank;
     }
 
     /**
-     * get individual streams from file
-     * @param fileBank Bank of file to decompress
+     * write all parts of file to a channel in one gathering write,
+     * without packing them together first
+     * @param out channel to write to
+     * @throws IOException if the channel can not be written
+     */
+    public void write(GatheringByteChannel out) throws IOException
+    {
+        FileIO.writeFully(out, fileBuffers());
+    }
+
+    /**
+     * header, block, end of blocks marker and index in file order
+     * @return array of ByteBuffers
+     */
+    private ByteBuffer[] fileBuffers()
+    {
+        int headerLength = header.getHeader().length;
+        ByteBuffer[] block = blockLength > 0
+                ? blockBuffers(blockLength, blockCRC32, zip) : new ByteBuffer[0];
+        int blockSize = 0;
+        for (ByteBuffer buffer : block) blockSize += buffer.remaining();
+        BlockIndex blockIndex = new BlockIndex();
+        if (blockLength > 0) blockIndex.add(headerLength, blockSize, blockLength, blockCRC32);
+        
+        header.setDataOffset(headerLength);
+        header.setIndexOffset(headerLength + blockSize + 4);
+        ByteBuffer[] buffers = new ByteBuffer[block.length + 3];
+        buffers[0] = ByteBuffer.wrap(header.getHeader());
+        System.arraycopy(block, 0, buffers, 1, block.length);
+        buffers[block.length + 1] = ByteBuffer.allocate(4);
+        buffers[block.length + 2] = ByteBuffer.wrap(blockIndex.pack());
+        return buffers;
+    }
+
+    /**
+     * pack a single compressed block
+     * @param length uncompressed length of the block
+     * @param crc32 CRC32 checksum of the uncompressed block
+     * @param zip Compress with encoded literals and matches
+     * @return byte array of block length, checksum, mode and coded block
+     */
+    public static byte[] packBlock(int length, int crc32, Compress zip)
+    {
+        byte[] bank = new byte[getPackedLength(zip)];
+        packBlock(length, crc32, zip, bank, 0);
+        return bank;
+    }
+
+    /**
+     * views of a single compressed block in packed order, sharing the
+     * arrays of the encoded streams, or the input of a STORED block, so it
+     * can be written without copying.
+     * Valid until the Compress context encodes another block
+     * @param length uncompressed length of the block
+     * @param crc32 CRC32 checksum of the uncompressed block
+     * @param zip Compress with encoded literals and matches
+     * @return array of ByteBuffers, their remaining bytes are the packed block
+     */
+    public static ByteBuffer[] blockBuffers(int length, int crc32, Compress zip)
+    {
+        // block length, checksum, mode and the four stream lengths
+        byte[] fields = new byte[BLOCK_HEADER + 16];
+        Utils.intToByte(length, fields, 0);
+        Utils.intToByte(crc32, fields, 4);
+        fields[8] = (byte) zip.getMode().getId();
+        if (zip.getMode() == BlockMode.STORED)
+        {
+            return new ByteBuffer[] { ByteBuffer.wrap(fields, 0, BLOCK_HEADER), zip.getStoredBlock() };
+        }
+        CompressedBlock literals = zip.getLiterals();
+        CompressedBlock matches = zip.getMatches();
+        Utils.intToByte(literals.getTreeStreamLength(), fields, 9);
+        Utils.intToByte(literals.getStreamLength(), fields, 13);
+        if (zip.getMode() == BlockMode.ENTROPY)
+        {
+            return new ByteBuffer[] {
+                ByteBuffer.wrap(fields, 0, 13), literals.getTreeStream().getBuffer(),
+                ByteBuffer.wrap(fields, 13, 4), literals.getStream().getBuffer()
+            };
+        }
+        Utils.intToByte(matches.getTreeStreamLength(), fields, 17);
+        Utils.intToByte(matches.getStreamLength(), fields, 21);
+        return new ByteBuffer[] {
+            ByteBuffer.wrap(fields, 0, 13), literals.getTreeStream().getBuffer(),
+            ByteBuffer.wrap(fields, 13, 4), literals.getStream().getBuffer(),
+            ByteBuffer.wrap(fields, 17, 4), matches.getTreeStream().getBuffer(),
+            ByteBuffer.wrap(fields, 21, 4), matches.getStream().getBuffer()
+        };
+    }
+
+    /**
+     * length of a single compressed block once packed
+     * @param zip Compress with encoded literals and matches
+     * @return integer bytes
+     */
+    public static int getPackedLength(Compress zip)
+    {
+        if (zip.getMode() == BlockMode.STORED) return BLOCK_HEADER + zip.getLength();
+        if (zip.getMode() == BlockMode.ENTROPY) return BLOCK_HEADER + zip.getLiterals().getPackedLength();
+        return BLOCK_HEADER + zip.getLiterals().getPackedLength() + zip.getMatches().getPackedLength();
+    }
+
+    /**
+     * pack a single compressed block into part of an array
+     * @param length uncompressed length of the block
+     * @param crc32 CRC32 checksum of the uncompressed block
+     * @param zip Compress with encoded literals and matches
+     * @param dst byte array with getPackedLength(zip) bytes free at offset
+     * @param offset position to pack to
+     * @return position after the packed block
+     */
+    public static int packBlock(int length, int crc32, Compress zip, byte[] dst, int offset)
+    {
+        Utils.intToByte(length, dst, offset);
+        Utils.intToByte(crc32, dst, offset + 4);
+        dst[offset + 8] = (byte) zip.getMode().getId();
+        if (zip.getMode() == BlockMode.STORED) return zip.copyStoredBlock(dst, offset + BLOCK_HEADER);
+        if (zip.getMode() == BlockMode.ENTROPY) return zip.getLiterals().pack(dst, offset + BLOCK_HEADER);
+        return zip.getMatches().pack(dst, zip.getLiterals().pack(dst, offset + BLOCK_HEADER));
+    }
+
+    /**
+     * get BlockIndex, only read when opened from a FileChannel
+     * @return BlockIndex
+     */
+    public BlockIndex getBlockIndex()
+    {
+        return index;
+    }
+
+    /**
+     * read the BlockIndex following the last block of a stream,
+     * once nextBlock has returned false
+     * @return BlockIndex
+     * @throws IOException if the stream can not be read
+     */
+    public BlockIndex readBlockIndex() throws IOException
+    {
+        int blocks = in.readInt();
+        if (blocks < 0 || blocks > (Integer.MAX_VALUE - 4) / 20)
+        {
+            throw new NotValidFileException("Not a valid LZNF File.");
+        }
+        byte[] bank = new byte[4 + blocks * 20];
+        System.arraycopy(Utils.intToByte(blocks), 0, bank, 0, 4);
+        in.readFully(bank, 4, bank.length - 4);
+        index = new BlockIndex(bank);
+        return index;
+    }
+
+    /**
+     * read a single block through the BlockIndex
+     * safe to call from several threads at once
+     * @param block block number
+     * @return LZNFFile with the streams of the block loaded
+     * @throws IOException if the file can not be read
+     * @throws NotValidFileException if the index entry is outside the blocks
      */
-    private void getStreams(Bank fileBank)
+    public LZNFFile getBlock(int block) throws IOException
     {
-        int offset = header.getDataOffset();
-        treeStream = new BitStream(Arrays.copyOfRange(fileBank.getBank(), 20 + header.getNameLength(), offset));
-        bitStream = new BitStream(Arrays.copyOfRange(fileBank.getBank(),offset,fileBank.size()));
+        long offset = index.getOffset(block);
+        int size = index.getCompressedSize(block);
+        if (offset < header.getDataOffset() || size < 4 || size > header.getIndexOffset() - offset)
+        {
+            throw new NotValidFileException("Not a valid LZNF File.");
+        }
+        byte[] bank = FileIO.read(channel, offset, size);
+        LZNFFile blockFile = readBlock(header, bank, 0, bank.length);
+        blockFile.blockNumber = block;
+        return blockFile;
     }
 
     /**
-     * get Huffman tree
+     * read a single block packed by packBlock, the streams
+     * read the array in place
+     * @param header FileHeader with the context bits of the block
+     * @param bank byte array holding the packed block
+     * @param offset start of the packed block
+     * @param length length of the packed block
+     * @return LZNFFile with the streams of the block loaded,
+     * block length 0 if the bank holds only an end of blocks marker
+     * @throws NotValidFileException if the block is truncated or malformed
+     */
+    public static LZNFFile readBlock(FileHeader header, byte[] bank, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset > bank.length - length || length < 4)
+        {
+            throw new NotValidFileException("Not a valid LZNF File.");
+        }
+        LZNFFile blockFile = new LZNFFile(header);
+        blockFile.blockLength = Utils.byteToInt(bank, offset);
+        if (blockFile.blockLength == 0) return blockFile;
+        if (blockFile.blockLength < 0 || blockFile.blockLength > LZNF.MAX_BLOCK_SIZE || length < 8)
+        {
+            throw new NotValidFileException("Not a valid LZNF File.");
+        }
+        blockFile.blockCRC32 = Utils.byteToInt(bank, offset + 4);
+        int end = offset + length;
+        int position = offset + 8;
+        if (header.getVersion() >= 3)
+        {
+            if (end - position < 1) throw new NotValidFileException("Not a valid LZNF File.");
+            blockFile.mode = BlockMode.of(bank[position++] & 0xff);
+        }
+        blockFile.blockNumber = 0;
+        if (blockFile.mode == BlockMode.STORED)
+        {
+            if (blockFile.blockLength > end - position) throw new NotValidFileException("Not a valid LZNF File.");
+            blockFile.stored = ByteBuffer.wrap(bank, position, blockFile.blockLength).slice();
+            return blockFile;
+        }
+        // an ENTROPY block has only the literal table and stream
+        BitStream[] streams = new BitStream[blockFile.mode == BlockMode.ENTROPY ? 2 : 4];
+        for (int i = 0; i < streams.length; i++)
+        {
+            if (end - position < 4) throw new NotValidFileException("Not a valid LZNF File.");
+            int streamLength = Utils.byteToInt(bank, position);
+            position += 4;
+            if (streamLength <= 0 || streamLength > end - position)
+            {
+                throw new NotValidFileException("Not a valid LZNF File.");
+            }
+            streams[i] = new BitStream(bank, position, streamLength);
+            position += streamLength;
+        }
+        blockFile.treeStream = streams[0];
+        blockFile.bitStream = streams[1];
+        if (blockFile.mode == BlockMode.LZP)
+        {
+            blockFile.matchTreeStream = streams[2];
+            blockFile.matchStream = streams[3];
+        }
+        return blockFile;
+    }
+
+    /**
+     * read the streams of the next block
+     * @return false if there are no more blocks
+     * @throws IOException if the stream can not be read
+     */
+    public boolean nextBlock() throws IOException
+    {
+        blockLength = in.readInt();
+        if (blockLength == 0) return false;
+        if (blockLength < 0 || blockLength > LZNF.MAX_BLOCK_SIZE) throw new NotValidFileException("Not a valid LZNF File.");
+        blockCRC32 = in.readInt();
+        mode = header.getVersion() >= 3 ? BlockMode.of(in.readUnsignedByte()) : BlockMode.LZP;
+        blockNumber++;
+        if (mode == BlockMode.STORED)
+        {
+            byte[] block = new byte[blockLength];
+            in.readFully(block);
+            stored = ByteBuffer.wrap(block);
+            treeStream = bitStream = matchTreeStream = matchStream = null;
+            return true;
+        }
+        stored = null;
+        treeStream = readStream();
+        bitStream = readStream();
+        if (mode == BlockMode.ENTROPY)
+        {
+            matchTreeStream = matchStream = null;
+            return true;
+        }
+        matchTreeStream = readStream();
+        matchStream = readStream();
+        return true;
+    }
+
+    /**
+     * read a length-prefixed BitStream of the current block
+     * @return BitStream
+     * @throws IOException if the stream can not be read
+     * @throws NotValidFileException if the length is longer than
+     * the block could have been packed to
+     */
+    private BitStream readStream() throws IOException
+    {
+        int length = in.readInt();
+        if (length <= 0 || length > maxStreamLength()) throw new NotValidFileException("Not a valid LZNF File.");
+        byte[] stream = new byte[length];
+        in.readFully(stream);
+        return new BitStream(stream);
+    }
+
+    /**
+     * longest stream the current block can hold. From version 3 a block is
+     * never packed longer than compressBound, earlier blocks were not stored
+     * so a stream can code every byte with a code of MAX_CODE_LENGTH bits
+     * @return long bytes
+     */
+    private long maxStreamLength()
+    {
+        if (header.getVersion() >= 3) return CompressorContext.compressBound(blockLength);
+        return ((long) blockLength * HuffmanTree.MAX_CODE_LENGTH + 7) / 8 + MAX_TABLE_OVERHEAD;
+    }
+
+    /**
+     * get uncompressed length of current block
+     * @return integer block length
+     */
+    public int getBlockLength()
+    {
+        return blockLength;
+    }
+
+    /**
+     * get number of current block, counting from 0
+     * @return integer block number
+     */
+    public int getBlockNumber()
+    {
+        return blockNumber;
+    }
+
+    /**
+     * get CRC32 checksum of current block
+     * @return integer checksum
+     */
+    public int getBlockCRC32()
+    {
+        return blockCRC32;
+    }
+
+    /**
+     * get how the current block is coded
+     * @return BlockMode, LZP for files before version 3
+     */
+    public BlockMode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * get bytes of the current block if it is STORED
+     * @return ByteBuffer of the block, null for an LZP block
+     */
+    public ByteBuffer getStoredBlock()
+    {
+        return stored;
+    }
+
+    /**
+     * get Huffman tree of literals
      * @return BitStream of Huffman tree
      */
     public BitStream getTreeStream()
@@ -100,7 +510,7 @@ public class LZNFFile
     }
 
     /**
-     * get encoded data
+     * get encoded literals
      * @return BitStream of encoded data
      */
     public BitStream getBitStream()
@@ -108,6 +518,24 @@ public class LZNFFile
         return bitStream;
     }
 
+    /**
+     * get Huffman tree of match lengths
+     * @return BitStream of Huffman tree
+     */
+    public BitStream getMatchTreeStream()
+    {
+        return matchTreeStream;
+    }
+
+    /**
+     * get encoded match lengths
+     * @return BitStream of encoded data
+     */
+    public BitStream getMatchStream()
+    {
+        return matchStream;
+    }
+
     /**
      * get FileHeader
      * @return FileHeader
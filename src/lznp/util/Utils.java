@@ -14,6 +14,10 @@
  */
 package lznp.util;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 /**
  * Utilities Class for LZNF
  * @author /u/Philboyd_Studge
@@ -22,6 +26,14 @@ public class Utils {
     
     private static final int LOWERCASE_ASCII_MIN = 65;
     private static final int NUMBER_ASCII_MIN = 48;
+    
+    // matches shorter than this are copied a byte at a time,
+    // below the cost of calling System.arraycopy
+    private static final int SHORT_MATCH = 16;
+
+    // Java 9 and later read heap ByteBuffer longs in one unaligned load
+    private static final boolean WORD_READS =
+            !System.getProperty("java.specification.version", "1.8").startsWith("1.");
 
     /**
      * Returns Hexadecimal String of specified number of digits
@@ -74,6 +86,32 @@ public class Utils {
         return retval;
     }
     
+    /**
+     * Convert 4 bytes of a byte[] bank at offset to integer.
+     * @param bank byte[] bank
+     * @param offset position of the highest byte
+     * @return integer from bytes
+     */
+    public static int byteToInt(byte[] bank, int offset)
+    {
+        return (bank[offset] & 0xff) << 24 | (bank[offset + 1] & 0xff) << 16
+                | (bank[offset + 2] & 0xff) << 8 | bank[offset + 3] & 0xff;
+    }
+
+    /**
+     * Convert integer to 4 bytes of a byte[] bank at offset
+     * @param value
+     * @param bank byte[] bank
+     * @param offset position of the highest byte
+     */
+    public static void intToByte(int value, byte[] bank, int offset)
+    {
+        bank[offset] = (byte) ((value >> 24) & 0xFF);
+        bank[offset + 1] = (byte) ((value >> 16) & 0xFF);
+        bank[offset + 2] = (byte) ((value >> 8) & 0xFF);
+        bank[offset + 3] = (byte) (value & 0xFF);
+    }
+
     /**
      * Convert integer to byte[] array
      * @param value
@@ -89,6 +127,112 @@ public class Utils {
         return b;
     }
 
+    /**
+     * Convert long to byte[] array
+     * @param value
+     * @return byte[] array of length 8
+     */
+    public static byte[] longToByte(long value)
+    {
+        byte[] b = new byte[8];
+        System.arraycopy(intToByte((int) (value >>> 32)), 0, b, 0, 4);
+        System.arraycopy(intToByte((int) value), 0, b, 4, 4);
+        return b;
+    }
+
+    /**
+     * Convert byte[] bank of length 8 to long.
+     * @param bank byte[] bank
+     * @return long from bytes
+     */
+    public static long byteToLong(byte[] bank)
+    {
+        return (long) byteToInt(Arrays.copyOfRange(bank, 0, 4)) << 32
+                | byteToInt(Arrays.copyOfRange(bank, 4, 8)) & 0xffffffffL;
+    }
+
+    /**
+     * copy an LZ match within a byte array. The source overlaps the
+     * destination when the match repeats a pattern shorter than itself,
+     * then the pattern is copied in chunks that double each time
+     * @param bank byte array
+     * @param src position of the earlier occurrence
+     * @param dst position to copy to, after src
+     * @param length number of bytes to copy
+     */
+    public static void copyMatch(byte[] bank, int src, int dst, int length)
+    {
+        int distance = dst - src;
+        if (length < SHORT_MATCH)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                bank[dst + i] = bank[src + i];
+            }
+        }
+        else if (distance >= length)
+        {
+            System.arraycopy(bank, src, bank, dst, length);
+        }
+        else if (distance == 1)
+        {
+            Arrays.fill(bank, dst, dst + length, bank[src]);
+        }
+        else
+        {
+            // bank[src, dst) holds whole periods of the pattern,
+            // so copying from src never reads a byte not yet written
+            while (length > 0)
+            {
+                int chunk = Math.min(distance, length);
+                System.arraycopy(bank, src, bank, dst, chunk);
+                dst += chunk;
+                length -= chunk;
+                distance += chunk;
+            }
+        }
+    }
+
+    /**
+     * number of equal bytes at two positions of a buffer. Bytes are compared
+     * eight at a time as little-endian longs, the lowest set bit of their
+     * XOR is the first byte that differs. Java 8 assembles heap ByteBuffer
+     * longs a byte at a time, so there the bytes are compared one by one
+     * @param words little-endian heap ByteBuffer, from wordBuffer()
+     * @param a position of the first run
+     * @param b position of the second run
+     * @param max most bytes to compare, both runs must have that many
+     * @return number of equal bytes, up to max
+     */
+    public static int matchLength(ByteBuffer words, int a, int b, int max)
+    {
+        byte[] bank = words.array();
+        // most failed predictions differ in the first byte
+        if (max == 0 || bank[a] != bank[b]) return 0;
+        int length = 1;
+        if (WORD_READS)
+        {
+            while (length + 8 <= max)
+            {
+                long diff = words.getLong(a + length) ^ words.getLong(b + length);
+                if (diff != 0) return length + (Long.numberOfTrailingZeros(diff) >>> 3);
+                length += 8;
+            }
+        }
+        while (length < max && bank[a + length] == bank[b + length]) length++;
+        return length;
+    }
+
+    /**
+     * little-endian view of a byte array for matchLength()
+     * @param bank byte array
+     * @return ByteBuffer with position 0 at bank[0]
+     */
+    public static ByteBuffer wordBuffer(byte[] bank)
+    {
+        return ByteBuffer.wrap(bank).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
     /**
      * byte array to hex string
      * for debugging purposes 